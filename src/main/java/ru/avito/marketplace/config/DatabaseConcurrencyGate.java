@@ -0,0 +1,142 @@
+package ru.avito.marketplace.config;
+
+import com.zaxxer.hikari.HikariDataSource;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.stereotype.Component;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Ограничение числа одновременных обращений к БД для режима виртуальных потоков.
+ * Тысячи виртуальных потоков ждут разрешения на семафоре (без занятых потоков ОС),
+ * а в пул соединений одновременно приходит не больше запросов, чем в нем соединений.
+ * Разрешение возвращается при закрытии соединения.
+ */
+@Slf4j
+@Component
+@ConditionalOnProperty(name = "spring.threads.virtual.enabled", havingValue = "true")
+public class DatabaseConcurrencyGate implements BeanPostProcessor, MeterBinder {
+
+    private final int configuredPermits;
+    private final Duration timeout;
+
+    private volatile Semaphore permits;
+
+    public DatabaseConcurrencyGate(@Value("${avito.db.gate.permits:0}") int configuredPermits,
+                                   @Value("${avito.db.gate.timeout:30s}") Duration timeout) {
+        this.configuredPermits = configuredPermits;
+        this.timeout = timeout;
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) {
+        if (!(bean instanceof DataSource dataSource) || bean instanceof GatedDataSource) {
+            return bean;
+        }
+        // По умолчанию - размер пула Hikari: больше одновременных запросов все равно не обслужить
+        int size = configuredPermits > 0 ? configuredPermits
+                : bean instanceof HikariDataSource hikari ? hikari.getMaximumPoolSize() : 10;
+        permits = new Semaphore(size, true);
+        log.info("Database concurrency gate enabled for '{}': {} permits", beanName, size);
+        return new GatedDataSource(dataSource);
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("avito.db.gate.available", this, gate -> gate.permits != null ? gate.permits.availablePermits() : 0)
+                .description("Free database concurrency permits")
+                .register(registry);
+        Gauge.builder("avito.db.gate.waiting", this, gate -> gate.permits != null ? gate.permits.getQueueLength() : 0)
+                .description("Threads waiting for a database concurrency permit")
+                .register(registry);
+    }
+
+    private Connection acquire(DataSource target, String username, String password) throws SQLException {
+        Semaphore gate = permits;
+        try {
+            if (!gate.tryAcquire(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                throw new SQLTransientConnectionException(
+                        "Database concurrency limit reached, no permit within " + timeout.toMillis() + " ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLTransientConnectionException("Interrupted while waiting for a database permit", e);
+        }
+
+        try {
+            Connection connection = username == null
+                    ? target.getConnection()
+                    : target.getConnection(username, password);
+            return releasingOnClose(connection, gate);
+        } catch (SQLException | RuntimeException e) {
+            gate.release();
+            throw e;
+        }
+    }
+
+    // Прокси соединения возвращает разрешение ровно один раз, при первом close()
+    private static Connection releasingOnClose(Connection connection, Semaphore gate) {
+        AtomicBoolean released = new AtomicBoolean();
+        return (Connection) Proxy.newProxyInstance(
+                Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class},
+                (proxy, method, args) -> {
+                    // Сравнение по прокси: Spring сопоставляет соединения транзакции через equals
+                    switch (method.getName()) {
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        default:
+                            break;
+                    }
+                    if (method.getName().equals("close") && released.compareAndSet(false, true)) {
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getTargetException();
+                        } finally {
+                            gate.release();
+                        }
+                    }
+                    try {
+                        return method.invoke(connection, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getTargetException();
+                    }
+                });
+    }
+
+    private class GatedDataSource extends DelegatingDataSource {
+
+        GatedDataSource(DataSource target) {
+            super(target);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            return acquire(obtainTargetDataSource(), null, null);
+        }
+
+        @Override
+        public Connection getConnection(String username, String password) throws SQLException {
+            return acquire(obtainTargetDataSource(), username, password);
+        }
+    }
+}
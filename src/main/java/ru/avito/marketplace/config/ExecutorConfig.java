@@ -0,0 +1,135 @@
+package ru.avito.marketplace.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Slf4j
+@Configuration
+public class ExecutorConfig {
+
+    // Файл и слушатели outbox внутри приложения
+    private static final int OUTBOX_INTERNAL_SINKS = 4;
+
+    /**
+     * Пул для генерации уменьшенных копий изображений.
+     * Очередь ограничена: при переполнении задача отбрасывается,
+     * копия будет построена при первом обращении к ней.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor imageVariantExecutor(
+            @Value("${avito.images.variants.threads:2}") int threads,
+            @Value("${avito.images.variants.queue-capacity:100}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-variant-");
+        executor.setRejectedExecutionHandler((task, pool) ->
+                log.warn("Image variant queue is full, variants will be built on first access"));
+        return executor;
+    }
+
+    /**
+     * Пул фоновой обработки загруженных изображений.
+     * Очередь ограничена: при переполнении загрузка отклоняется с 503, а не копится на диске.
+     */
+    @Bean
+    public ThreadPoolTaskExecutor imageUploadExecutor(
+            @Value("${avito.images.uploads.threads:2}") int threads,
+            @Value("${avito.images.uploads.queue-capacity:200}") int queueCapacity) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(queueCapacity);
+        executor.setThreadNamePrefix("image-upload-");
+        return executor;
+    }
+
+    /**
+     * Пул выгрузок GET /ads/export: каждая держит курсор БД и соединение с клиентом,
+     * поэтому параллельных выгрузок немного, а лишние отклоняются с 503
+     */
+    @Bean
+    public ThreadPoolTaskExecutor exportExecutor(
+            @Value("${avito.export.threads:2}") int threads) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(0);
+        executor.setThreadNamePrefix("ads-export-");
+        return executor;
+    }
+
+    /**
+     * Планировщик фоновых работ с файлами: удаление после коммита, повторы и поиск сирот.
+     * Размер очереди удалений ограничивает ImageDeletionQueue.
+     */
+    @Bean
+    public ThreadPoolTaskScheduler imageMaintenanceScheduler(
+            @Value("${avito.images.deletion.threads:1}") int threads) {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(threads);
+        scheduler.setThreadNamePrefix("image-maintenance-");
+        return scheduler;
+    }
+
+    /**
+     * Однопоточный планировщик outbox: назначение позиций и запуск доставки не выполняются параллельно
+     */
+    @Bean
+    public ThreadPoolTaskScheduler outboxScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("outbox-relay-");
+        return scheduler;
+    }
+
+    /**
+     * Пул доставки событий outbox: по одной задаче на приемник -
+     * внешние подписки плюс файл и слушатели внутри приложения
+     */
+    @Bean
+    public ThreadPoolTaskExecutor outboxDeliveryExecutor(
+            @Value("${avito.outbox.max-subscribers:16}") int maxSubscribers) {
+        int sinks = maxSubscribers + OUTBOX_INTERNAL_SINKS;
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(sinks);
+        executor.setMaxPoolSize(sinks);
+        executor.setQueueCapacity(sinks);
+        executor.setThreadNamePrefix("outbox-delivery-");
+        return executor;
+    }
+
+    /**
+     * Планировщик подписок на комментарии: проверка соединений и поиск зависших записей.
+     * В соединения он не пишет, поэтому медленные клиенты его не занимают
+     */
+    @Bean
+    public ThreadPoolTaskScheduler commentStreamScheduler() {
+        ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+        scheduler.setPoolSize(1);
+        scheduler.setThreadNamePrefix("comment-stream-");
+        return scheduler;
+    }
+
+    /**
+     * Пул отправки событий подписчикам комментариев: публикация только кладет событие
+     * в буфер подписчика, а запись в соединение выполняется здесь.
+     * У подписчика не больше одной задачи, поэтому очередь размером с предел подписок не переполняется
+     */
+    @Bean
+    public ThreadPoolTaskExecutor commentStreamWriter(
+            @Value("${avito.comments.stream.threads:32}") int threads,
+            @Value("${avito.comments.stream.max-subscribers:10000}") int maxSubscribers) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(maxSubscribers);
+        executor.setThreadNamePrefix("comment-stream-writer-");
+        return executor;
+    }
+}
@@ -0,0 +1,75 @@
+package ru.avito.marketplace.config;
+
+import com.nimbusds.jose.jwk.source.ImmutableSecret;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.security.oauth2.core.DelegatingOAuth2TokenValidator;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwtClaimValidator;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtValidators;
+import org.springframework.security.oauth2.jwt.NimbusJwtDecoder;
+import org.springframework.security.oauth2.jwt.NimbusJwtEncoder;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.util.Base64;
+
+@Configuration
+public class JwtConfig {
+
+    public static final String TOKEN_TYPE_CLAIM = "typ";
+    public static final String ROLES_CLAIM = "roles";
+    public static final String ACCESS_TOKEN_TYPE = "access";
+    public static final String REFRESH_TOKEN_TYPE = "refresh";
+
+    @Value("${avito.jwt.secret}")
+    private String secret;
+
+    @Value("${avito.jwt.issuer:avito-marketplace}")
+    private String issuer;
+
+    @Bean
+    public SecretKey jwtSecretKey() {
+        if (secret == null || secret.isBlank()) {
+            throw new IllegalStateException("avito.jwt.secret не задан: укажите JWT_SECRET");
+        }
+        byte[] keyBytes;
+        try {
+            keyBytes = Base64.getDecoder().decode(secret.trim());
+        } catch (IllegalArgumentException e) {
+            throw new IllegalStateException("avito.jwt.secret должен быть в Base64", e);
+        }
+        if (keyBytes.length < 32) {
+            throw new IllegalStateException("avito.jwt.secret должен содержать не менее 256 бит");
+        }
+        return new SecretKeySpec(keyBytes, "HmacSHA256");
+    }
+
+    @Bean
+    public JwtEncoder jwtEncoder(SecretKey jwtSecretKey) {
+        return new NimbusJwtEncoder(new ImmutableSecret<>(jwtSecretKey));
+    }
+
+    /**
+     * Декодер для защищенных endpoints: принимает только access-токены.
+     * Подпись проверяется локально, без обращения к БД.
+     */
+    @Bean
+    public JwtDecoder jwtDecoder(SecretKey jwtSecretKey) {
+        return decoder(jwtSecretKey, issuer, ACCESS_TOKEN_TYPE);
+    }
+
+    public static NimbusJwtDecoder decoder(SecretKey key, String issuer, String tokenType) {
+        NimbusJwtDecoder decoder = NimbusJwtDecoder.withSecretKey(key)
+                .macAlgorithm(MacAlgorithm.HS256)
+                .build();
+        decoder.setJwtValidator(new DelegatingOAuth2TokenValidator<>(
+                JwtValidators.createDefaultWithIssuer(issuer),
+                new JwtClaimValidator<String>(TOKEN_TYPE_CLAIM, tokenType::equals)
+        ));
+        return decoder;
+    }
+}
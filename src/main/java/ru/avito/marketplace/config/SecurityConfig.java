@@ -1,9 +1,14 @@
 package ru.avito.marketplace.config;
 
 import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpMethod;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.AuthenticationProvider;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.config.annotation.authentication.configuration.AuthenticationConfiguration;
 import org.springframework.security.config.annotation.method.configuration.EnableMethodSecurity;
 import org.springframework.security.config.annotation.web.builders.HttpSecurity;
 import org.springframework.security.config.annotation.web.configuration.EnableWebSecurity;
@@ -11,11 +16,14 @@ import org.springframework.security.config.annotation.web.configurers.AbstractHt
 import org.springframework.security.config.http.SessionCreationPolicy;
 import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
 import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationConverter;
+import org.springframework.security.oauth2.server.resource.authentication.JwtGrantedAuthoritiesConverter;
 import org.springframework.security.provisioning.JdbcUserDetailsManager;
 import org.springframework.security.web.SecurityFilterChain;
 import org.springframework.web.cors.CorsConfiguration;
 import org.springframework.web.cors.CorsConfigurationSource;
 import org.springframework.web.cors.UrlBasedCorsConfigurationSource;
+import ru.avito.marketplace.service.CredentialCache;
 
 import javax.sql.DataSource;
 import java.util.Arrays;
@@ -30,6 +38,9 @@ public class SecurityConfig {
 
     private final DataSource dataSource;
 
+    @Value("${avito.auth.credential-cache.enabled:false}")
+    private boolean credentialCacheEnabled;
+
     @Bean
     public SecurityFilterChain filterChain(HttpSecurity http) throws Exception {
         http
@@ -37,15 +48,25 @@ public class SecurityConfig {
                 .cors(cors -> cors.configurationSource(corsConfigurationSource()))
                 .sessionManagement(session -> session.sessionCreationPolicy(SessionCreationPolicy.STATELESS))
                 .authorizeHttpRequests(auth -> auth
+                        // Выгрузка только для ADMIN; правило стоит раньше публичного GET /ads/{id}
+                        .requestMatchers(HttpMethod.GET, "/ads/export").hasRole("ADMIN")
+                        // Поток изменений для внутренних потребителей
+                        .requestMatchers("/events/**").hasRole("ADMIN")
+
                         // 1. Публичные GET запросы (как в требованиях)
                         .requestMatchers(HttpMethod.GET, "/ads").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/ads/search").permitAll()
                         .requestMatchers(HttpMethod.GET, "/ads/{id}").permitAll()
                         .requestMatchers(HttpMethod.GET, "/ads/{adId}/comments").permitAll()
+                        .requestMatchers(HttpMethod.GET, "/ads/{adId}/comments/stream").permitAll()
 
                         // 2. Публичные endpoints (регистрация, документация)
-                        .requestMatchers("/auth/register").permitAll() // только регистрация публичная
+                        .requestMatchers("/auth/register").permitAll()
+                        .requestMatchers(HttpMethod.POST, "/auth/login", "/auth/refresh").permitAll()
                         .requestMatchers("/swagger-ui/**", "/v3/api-docs/**").permitAll()
                         .requestMatchers("/images/**").permitAll()
+                        .requestMatchers("/actuator/health").permitAll()
+                        .requestMatchers("/actuator/**").hasRole("ADMIN")
 
                         // 3. Защищенные POST/PUT/PATCH/DELETE (как в требованиях)
                         .requestMatchers(HttpMethod.POST, "/ads/**").hasAnyRole("USER", "ADMIN")
@@ -62,23 +83,63 @@ public class SecurityConfig {
                         // 5. Все остальное требует аутентификации
                         .anyRequest().authenticated()
                 )
+                // Основной режим - bearer-токен, проверяемый по подписи без обращения к БД
+                .oauth2ResourceServer(oauth2 -> oauth2
+                        .jwt(jwt -> jwt.jwtAuthenticationConverter(jwtAuthenticationConverter())))
+                // Basic Auth оставлен для клиентов, которые еще не перешли на токены
                 .httpBasic(withDefaults());
 
         return http.build();
     }
 
+    @Bean
+    public JwtAuthenticationConverter jwtAuthenticationConverter() {
+        JwtGrantedAuthoritiesConverter authoritiesConverter = new JwtGrantedAuthoritiesConverter();
+        authoritiesConverter.setAuthoritiesClaimName(JwtConfig.ROLES_CLAIM);
+        authoritiesConverter.setAuthorityPrefix("ROLE_");
+
+        JwtAuthenticationConverter converter = new JwtAuthenticationConverter();
+        converter.setJwtGrantedAuthoritiesConverter(authoritiesConverter);
+        return converter;
+    }
+
+    /**
+     * Единственный AuthenticationProvider приложения: на нем строится глобальный AuthenticationManager,
+     * к которому обращаются и HTTP Basic в цепочке фильтров, и вход по паролю в TokenService
+     */
+    @Bean
+    public AuthenticationProvider authenticationProvider(JdbcUserDetailsManager userDetailsManager,
+                                                         PasswordEncoder passwordEncoder,
+                                                         CredentialCache credentialCache) {
+        DaoAuthenticationProvider provider = new DaoAuthenticationProvider();
+        provider.setUserDetailsService(userDetailsManager);
+        provider.setPasswordEncoder(passwordEncoder);
+
+        // Для клиентов, оставшихся на Basic Auth: не гонять BCrypt на каждый запрос
+        if (credentialCacheEnabled) {
+            return new CachingAuthenticationProvider(provider, credentialCache);
+        }
+        return provider;
+    }
+
+    @Bean
+    public AuthenticationManager authenticationManager(AuthenticationConfiguration authenticationConfiguration)
+            throws Exception {
+        return authenticationConfiguration.getAuthenticationManager();
+    }
+
     @Bean
     public JdbcUserDetailsManager userDetailsManager() {
         JdbcUserDetailsManager manager = new JdbcUserDetailsManager();
         manager.setDataSource(dataSource);
 
-        // ИСПРАВЛЕННЫЕ ЗАПРОСЫ - таблица называется "user" (в кавычках, т.к. зарезервированное слово)
+        // Таблица пользователей - "users" (см. User), отдельной колонки enabled нет
         manager.setUsersByUsernameQuery(
-                "SELECT email as username, password, enabled FROM \"user\" WHERE email = ?"
+                "SELECT email as username, password, true as enabled FROM users WHERE email = ?"
         );
         manager.setAuthoritiesByUsernameQuery(
                 "SELECT u.email as username, 'ROLE_' || u.role as authority " +
-                        "FROM \"user\" u WHERE u.email = ?"
+                        "FROM users u WHERE u.email = ?"
         );
 
         return manager;
@@ -6,6 +6,8 @@ public class ApiConstants {
     public static final String IMAGES_DIRECTORY = "images/";
     public static final String AVATARS_SUBDIR = "avatars/";
     public static final String ADS_SUBDIR = "ads/";
+    // Принятые, но еще не обработанные загрузки
+    public static final String STAGING_SUBDIR = ".staging/";
 
     // URL
     public static final String DEFAULT_AVATAR_URL = "/images/avatars/default.png";
@@ -7,18 +7,28 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
 import ru.avito.marketplace.dto.*;
+import ru.avito.marketplace.service.AdExportService;
+import ru.avito.marketplace.service.AdImportService;
 import ru.avito.marketplace.service.AdService;
 import ru.avito.marketplace.service.AuthService;
+import ru.avito.marketplace.service.ResponseCache;
+import ru.avito.marketplace.service.ResponseCache.CachedResponse;
 
 import java.io.IOException;
+import java.net.URI;
+import java.time.OffsetDateTime;
 
 @RestController
 @RequestMapping("/ads")
@@ -27,10 +37,49 @@ import java.io.IOException;
 public class AdController {
 
     private final AdService adService;
+    private final ResponseCache responseCache;
+    private final AdImportService adImportService;
+    private final AdExportService adExportService;
 
-    @GetMapping
-    public ResponseEntity<ResponseWrapper<AdDto>> getAllAds() {
-        ResponseWrapper<AdDto> response = adService.getAllAds();
+    @GetMapping(produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "OK",
+                    content = @Content(schema = @Schema(implementation = ResponseWrapper.class))),
+            @ApiResponse(responseCode = "304", description = "Не изменилось")
+    })
+    public ResponseEntity<byte[]> getAllAds(
+            @Parameter(description = "Курсор следующей страницы из поля next предыдущего ответа")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Размер страницы", example = "20")
+            @RequestParam(required = false) Integer size,
+            @Parameter(description = "Минимальная цена", example = "1000")
+            @RequestParam(required = false) Integer minPrice,
+            @Parameter(description = "Максимальная цена", example = "50000")
+            @RequestParam(required = false) Integer maxPrice,
+            @Parameter(description = "Сортировка: date (по умолчанию, новые первыми), price, -price")
+            @RequestParam(required = false) String sort,
+            @Parameter(description = "Добавить в ответ гистограмму цен")
+            @RequestParam(defaultValue = "false") boolean facets,
+            HttpServletRequest request) {
+        String key = cursor + "|" + size + "|" + minPrice + "|" + maxPrice + "|" + sort + "|" + facets;
+        // Теги - объявления страницы: комментарий к объявлению сбрасывает только страницы с ним
+        CachedResponse response = responseCache.get(ResponseCache.Scope.ADS, key,
+                () -> adService.getAllAds(cursor, size, minPrice, maxPrice, sort, facets),
+                page -> page.getResults().stream().map(AdDto::getId).toList());
+        return CachedResponses.toResponse(response, request);
+    }
+
+    @GetMapping("/search")
+    public ResponseEntity<ResponseWrapper<AdDto>> searchAds(
+            @Parameter(description = "Поисковый запрос по заголовку и описанию", example = "велосипед")
+            @RequestParam String q,
+            @Parameter(description = "Минимальная цена", example = "1000")
+            @RequestParam(required = false) Integer minPrice,
+            @Parameter(description = "Максимальная цена", example = "50000")
+            @RequestParam(required = false) Integer maxPrice,
+            @Parameter(description = "Количество результатов", example = "20")
+            @RequestParam(required = false) Integer size) {
+        ResponseWrapper<AdDto> response = adService.searchAds(q, minPrice, maxPrice, size);
         return ResponseEntity.ok(response);
     }
 
@@ -43,10 +92,48 @@ public class AdController {
         return ResponseEntity.status(HttpStatus.CREATED).body(createdAd);
     }
 
-    @GetMapping("/{id}")
-    public ResponseEntity<ExtendedAdDto> getAd(@PathVariable Integer id) {
-        ExtendedAdDto ad = adService.getAd(id);
-        return ResponseEntity.ok(ad);
+    @Operation(
+            summary = "Пакетный импорт объявлений",
+            description = "Тело - NDJSON: по одному объекту CreateOrUpdateAdDto на строку. " +
+                    "Объявления создаются от имени текущего пользователя; строки с ошибками пропускаются " +
+                    "и перечисляются в отчете"
+    )
+    @PostMapping(value = "/import", consumes = {"application/x-ndjson", MediaType.TEXT_PLAIN_VALUE})
+    public ResponseEntity<ImportReport> importAds(HttpServletRequest request) throws IOException {
+        // Тело читается потоком, без буферизации целиком
+        ImportReport report = adImportService.importAds(request.getInputStream());
+        return ResponseEntity.ok(report);
+    }
+
+    @Operation(
+            summary = "Выгрузка объявлений (ADMIN)",
+            description = "NDJSON: одно объявление на строку в порядке (createdAt, id). " +
+                    "Для продолжения прерванной выгрузки передайте createdAt и id последней полученной строки " +
+                    "в параметрах since и sinceId"
+    )
+    @GetMapping(value = "/export", produces = "application/x-ndjson")
+    public ResponseEntity<ResponseBodyEmitter> exportAds(
+            @Parameter(description = "createdAt последней полученной строки", example = "2024-01-15T10:30:00Z")
+            @RequestParam(required = false) @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime since,
+            @Parameter(description = "id последней полученной строки", example = "42")
+            @RequestParam(required = false) Integer sinceId,
+            @Parameter(description = "Включить комментарии каждого объявления")
+            @RequestParam(defaultValue = "false") boolean comments) {
+        ResponseBodyEmitter body = adExportService.startExport(since, sinceId, comments);
+        return ResponseEntity.ok()
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .body(body);
+    }
+
+    @GetMapping(value = "/{id}", produces = MediaType.APPLICATION_JSON_VALUE)
+    @ApiResponse(responseCode = "200", description = "OK",
+            content = @Content(schema = @Schema(implementation = ExtendedAdDto.class)))
+    public ResponseEntity<byte[]> getAd(@PathVariable Integer id) {
+        // Карточка отдается уже сериализованной из кэша
+        byte[] ad = adService.getAdJson(id);
+        return ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(ad);
     }
 
     @DeleteMapping("/{id}")
@@ -64,9 +151,32 @@ public class AdController {
         return ResponseEntity.ok(updated);
     }
 
+    @PatchMapping(value = "/{id}/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @Operation(summary = "Обновить изображение объявления",
+            description = "Файл принимается сразу и обрабатывается в фоне; состояние - GET /users/me/image-jobs/{jobId}")
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "202", description = "Принято в обработку",
+                    content = @Content(schema = @Schema(implementation = ImageJobDto.class))),
+            @ApiResponse(responseCode = "503", description = "Очередь обработки заполнена")
+    })
+    public ResponseEntity<ImageJobDto> updateAdImage(
+            @PathVariable Integer id,
+            @Parameter(description = "Новое изображение объявления", required = true)
+            @RequestParam MultipartFile image) throws IOException {
+        ImageJobDto job = adService.updateAdImage(id, image);
+        return ResponseEntity.accepted()
+                .location(URI.create("/users/me/image-jobs/" + job.getId()))
+                .body(job);
+    }
+
     @GetMapping("/me")
-    public ResponseEntity<ResponseWrapper<AdDto>> getMyAds(Authentication authentication) {
-        ResponseWrapper<AdDto> response = adService.getMyAds();
+    public ResponseEntity<ResponseWrapper<AdDto>> getMyAds(
+            @Parameter(description = "Курсор следующей страницы из поля next предыдущего ответа")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Размер страницы", example = "20")
+            @RequestParam(required = false) Integer size,
+            Authentication authentication) {
+        ResponseWrapper<AdDto> response = adService.getMyAds(cursor, size);
         return ResponseEntity.ok(response);
     }
 }
\ No newline at end of file
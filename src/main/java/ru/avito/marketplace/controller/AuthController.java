@@ -12,10 +12,14 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import ru.avito.marketplace.dto.LoginReq;
+import ru.avito.marketplace.dto.LoginRes;
+import ru.avito.marketplace.dto.RefreshTokenReq;
 import ru.avito.marketplace.dto.RegisterReq;
 import ru.avito.marketplace.dto.NewPasswordDto;
 import ru.avito.marketplace.dto.UserDto;
 import ru.avito.marketplace.service.AuthService;
+import ru.avito.marketplace.service.TokenService;
 
 @Slf4j
 @RestController
@@ -25,6 +29,7 @@ import ru.avito.marketplace.service.AuthService;
 public class AuthController {
 
     private final AuthService authService;
+    private final TokenService tokenService;
 
     /**
      * Регистрация нового пользователя
@@ -47,6 +52,42 @@ public class AuthController {
         return ResponseEntity.status(HttpStatus.CREATED).build();
     }
 
+    /**
+     * Вход: выдача access- и refresh-токенов
+     */
+    @PostMapping("/login")
+    @Operation(
+            summary = "Вход",
+            description = "Проверка email и пароля и выдача подписанных bearer-токенов",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Токены выданы",
+                            content = @Content(schema = @Schema(implementation = LoginRes.class))),
+                    @ApiResponse(responseCode = "400", description = "Невалидные данные"),
+                    @ApiResponse(responseCode = "401", description = "Неверный email или пароль")
+            }
+    )
+    public ResponseEntity<LoginRes> login(@Valid @RequestBody LoginReq loginReq) {
+        log.info("Запрос на вход пользователя: {}", loginReq.getUsername());
+        return ResponseEntity.ok(tokenService.login(loginReq));
+    }
+
+    /**
+     * Обновление access-токена по refresh-токену
+     */
+    @PostMapping("/refresh")
+    @Operation(
+            summary = "Обновление токена",
+            description = "Обмен refresh-токена на новую пару токенов",
+            responses = {
+                    @ApiResponse(responseCode = "200", description = "Токены обновлены",
+                            content = @Content(schema = @Schema(implementation = LoginRes.class))),
+                    @ApiResponse(responseCode = "401", description = "Refresh-токен недействителен или истек")
+            }
+    )
+    public ResponseEntity<LoginRes> refresh(@Valid @RequestBody RefreshTokenReq refreshTokenReq) {
+        return ResponseEntity.ok(tokenService.refresh(refreshTokenReq.getRefreshToken()));
+    }
+
     /**
      * ✅ КРИТЕРИИ 11-12: Смена пароля текущего пользователя
      * Успешный запрос: 200 OK
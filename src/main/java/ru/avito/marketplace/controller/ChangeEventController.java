@@ -0,0 +1,48 @@
+package ru.avito.marketplace.controller;
+
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.Parameter;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.responses.ApiResponses;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.avito.marketplace.dto.ChangeEventDto;
+import ru.avito.marketplace.service.OutboxRelay;
+
+@RestController
+@RequestMapping("/events")
+@RequiredArgsConstructor
+@Tag(name = "Изменения", description = "Поток изменений объявлений и комментариев для внутренних потребителей")
+public class ChangeEventController {
+
+    private final OutboxRelay outboxRelay;
+
+    @Operation(
+            summary = "Поток изменений (SSE)",
+            description = "События в порядке position, id события SSE равен position. " +
+                    "Продолжение после обрыва - с позиции из after или заголовка Last-Event-ID; " +
+                    "без них поток начинается с текущего момента. Только ADMIN."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(responseCode = "200", description = "OK",
+                    content = @Content(mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                            schema = @Schema(implementation = ChangeEventDto.class))),
+            @ApiResponse(responseCode = "503", description = "Достигнут предел подписок")
+    })
+    @GetMapping(value = "/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter stream(
+            @Parameter(description = "Позиция последнего полученного события", example = "1042")
+            @RequestParam(required = false) Long after,
+            @RequestHeader(value = "Last-Event-ID", required = false) Long lastEventId) {
+        return outboxRelay.subscribe(after != null ? after : lastEventId);
+    }
+}
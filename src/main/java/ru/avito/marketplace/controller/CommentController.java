@@ -7,6 +7,7 @@ import io.swagger.v3.oas.annotations.media.Schema;
 import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
+import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -14,10 +15,16 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.Authentication;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.avito.marketplace.dto.ChangeEventDto;
 import ru.avito.marketplace.dto.CommentDto;
 import ru.avito.marketplace.dto.CreateOrUpdateCommentDto;
 import ru.avito.marketplace.dto.ResponseWrapper;
 import ru.avito.marketplace.service.CommentService;
+import ru.avito.marketplace.service.ResponseCache;
+import ru.avito.marketplace.service.ResponseCache.CachedResponse;
+
+import java.util.List;
 
 @RestController
 @RequestMapping("/ads")
@@ -27,10 +34,11 @@ import ru.avito.marketplace.service.CommentService;
 public class CommentController {
 
     private final CommentService commentService;
+    private final ResponseCache responseCache;
 
     @Operation(
             summary = "Получить комментарии объявления",
-            description = "Возвращает все комментарии к указанному объявлению"
+            description = "Возвращает комментарии к указанному объявлению постранично, новые первыми"
     )
     @ApiResponses(value = {
             @ApiResponse(
@@ -41,15 +49,50 @@ public class CommentController {
                             schema = @Schema(implementation = ResponseWrapper.class)
                     )
             ),
+            @ApiResponse(responseCode = "304", description = "Не изменилось"),
             @ApiResponse(responseCode = "404", description = "Объявление не найдено")
     })
-    @GetMapping("/{adId}/comments")
-    public ResponseEntity<ResponseWrapper<CommentDto>> getComments(
+    @GetMapping(value = "/{adId}/comments", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<byte[]> getComments(
             @Parameter(description = "ID объявления", required = true, example = "1")
-            @PathVariable Integer adId) {
+            @PathVariable Integer adId,
+            @Parameter(description = "Курсор следующей страницы из поля next предыдущего ответа")
+            @RequestParam(required = false) String cursor,
+            @Parameter(description = "Размер страницы", example = "20")
+            @RequestParam(required = false) Integer size,
+            HttpServletRequest request) {
+
+        String key = adId + "|" + cursor + "|" + size;
+        CachedResponse response = responseCache.get(ResponseCache.Scope.COMMENTS, key,
+                () -> commentService.getComments(adId, cursor, size), page -> List.of(adId));
+        return CachedResponses.toResponse(response, request);
+    }
 
-        ResponseWrapper<CommentDto> response = commentService.getComments(adId);
-        return ResponseEntity.ok(response);
+    @Operation(
+            summary = "Подписаться на изменения комментариев",
+            description = "Поток SSE с событиями created, updated и deleted комментариев объявления; " +
+                    "данные - событие изменения с CommentDto в payload. Клиент сначала подписывается, " +
+                    "затем загружает первую страницу. После обрыва или отключения за отставание " +
+                    "нужно переподключиться и перечитать страницу."
+    )
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "OK",
+                    content = @Content(
+                            mediaType = MediaType.TEXT_EVENT_STREAM_VALUE,
+                            schema = @Schema(implementation = ChangeEventDto.class)
+                    )
+            ),
+            @ApiResponse(responseCode = "404", description = "Объявление не найдено"),
+            @ApiResponse(responseCode = "503", description = "Достигнут предел подписок узла или клиента")
+    })
+    @GetMapping(value = "/{adId}/comments/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter streamComments(
+            @Parameter(description = "ID объявления", required = true, example = "1")
+            @PathVariable Integer adId,
+            HttpServletRequest request) {
+        return commentService.subscribe(adId, request.getRemoteAddr());
     }
 
     @Operation(
@@ -1,5 +1,6 @@
 package ru.avito.marketplace.controller;
 
+import ru.avito.marketplace.dto.ImageJobDto;
 import ru.avito.marketplace.dto.UpdateUserDto;
 import ru.avito.marketplace.dto.UserDto;
 import io.swagger.v3.oas.annotations.Operation;
@@ -10,18 +11,27 @@ import io.swagger.v3.oas.annotations.responses.ApiResponse;
 import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.validation.Valid;
+import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import ru.avito.marketplace.service.UserService;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.UUID;
 
 @RestController
 @RequestMapping("/users")
 @CrossOrigin(origins = "http://localhost:3000")
 @Tag(name = "Пользователи", description = "API для работы с профилями пользователей")
+@RequiredArgsConstructor
 public class UserController {
 
+    private final UserService userService;
+
     @Operation(
             summary = "Получить информацию о текущем пользователе",
             description = "Возвращает данные авторизованного пользователя"
@@ -88,36 +98,51 @@ public class UserController {
 
     @Operation(
             summary = "Обновить аватар пользователя",
-            description = "Загрузка нового изображения профиля"
+            description = "Файл принимается сразу и обрабатывается в фоне; состояние - GET /users/me/image-jobs/{jobId}"
     )
     @ApiResponses(value = {
             @ApiResponse(
-                    responseCode = "200",
-                    description = "OK",
+                    responseCode = "202",
+                    description = "Принято в обработку",
                     content = @Content(
                             mediaType = MediaType.APPLICATION_JSON_VALUE,
-                            schema = @Schema(implementation = UserDto.class)
+                            schema = @Schema(implementation = ImageJobDto.class)
                     )
             ),
             @ApiResponse(responseCode = "400", description = "Некорректный файл"),
             @ApiResponse(responseCode = "401", description = "Требуется авторизация"),
-            @ApiResponse(responseCode = "413", description = "Файл слишком большой")
+            @ApiResponse(responseCode = "413", description = "Файл слишком большой"),
+            @ApiResponse(responseCode = "503", description = "Очередь обработки заполнена")
     })
     @PatchMapping(value = "/me/image", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public ResponseEntity<UserDto> updateUserImage(
+    public ResponseEntity<ImageJobDto> updateUserImage(
             @Parameter(description = "Новое изображение профиля", required = true)
-            @RequestParam MultipartFile image) {
+            @RequestParam MultipartFile image) throws IOException {
 
-        // Заглушка для Этапа I
-        UserDto response = new UserDto();
-        response.setId(1);
-        response.setEmail("user@example.com");
-        response.setFirstName("Иван");
-        response.setLastName("Иванов");
-        response.setPhone("+79161234567");
-        response.setImage("/images/avatars/new-avatar.jpg");
-        response.setRole("USER");
+        ImageJobDto job = userService.updateUserImage(image);
+        return ResponseEntity.accepted()
+                .location(URI.create("/users/me/image-jobs/" + job.getId()))
+                .body(job);
+    }
 
-        return ResponseEntity.ok(response);
+    @Operation(
+            summary = "Состояние загрузки изображения",
+            description = "Задание доступно только его владельцу и хранится ограниченное время"
+    )
+    @ApiResponses(value = {
+            @ApiResponse(
+                    responseCode = "200",
+                    description = "OK",
+                    content = @Content(
+                            mediaType = MediaType.APPLICATION_JSON_VALUE,
+                            schema = @Schema(implementation = ImageJobDto.class)
+                    )
+            ),
+            @ApiResponse(responseCode = "401", description = "Требуется авторизация"),
+            @ApiResponse(responseCode = "404", description = "Задание не найдено")
+    })
+    @GetMapping("/me/image-jobs/{jobId}")
+    public ResponseEntity<ImageJobDto> getImageJob(@PathVariable UUID jobId) {
+        return ResponseEntity.ok(userService.getImageJob(jobId));
     }
-}
\ No newline at end of file
+}
@@ -1,9 +1,13 @@
 package ru.avito.marketplace.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 @Schema(description = "Краткая информация об объявлении")
 public class AdDto {
 
@@ -13,7 +17,8 @@ public class AdDto {
     @Schema(description = "ID автора объявления", example = "5")
     private Integer authorId;
 
-    @Schema(description = "Ссылка на изображение объявления", example = "/images/ads/1.jpg")
+    @Schema(description = "Ссылка на изображение объявления (уменьшенная копия: ?w=160|320|640)",
+            example = "/images/ads/1.jpg")
     private String image;
 
     @Schema(description = "Цена", example = "15000")
@@ -24,4 +29,7 @@ public class AdDto {
 
     @Schema(description = "Описание объявления", example = "Ноутбук в отличном состоянии")
     private String description;
+
+    @Schema(description = "Количество комментариев", example = "3")
+    private Integer commentCount;
 }
\ No newline at end of file
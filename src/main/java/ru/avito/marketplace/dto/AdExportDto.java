@@ -0,0 +1,46 @@
+package ru.avito.marketplace.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Строка выгрузки объявлений (NDJSON)")
+public class AdExportDto {
+
+    @Schema(description = "ID объявления", example = "1")
+    private Integer id;
+
+    @Schema(description = "ID автора объявления", example = "5")
+    private Integer authorId;
+
+    @Schema(description = "Ссылка на изображение объявления", example = "/images/ads/1.jpg")
+    private String image;
+
+    @Schema(description = "Цена", example = "15000")
+    private Integer price;
+
+    @Schema(description = "Заголовок объявления", example = "Продам ноутбук")
+    private String title;
+
+    @Schema(description = "Описание объявления", example = "Ноутбук в отличном состоянии")
+    private String description;
+
+    @Schema(description = "Количество комментариев", example = "3")
+    private Integer commentCount;
+
+    @Schema(description = "Дата создания; вместе с id - отметка для продолжения выгрузки",
+            example = "2024-01-15T10:30:00Z")
+    private OffsetDateTime createdAt;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Комментарии, от старых к новым (только при comments=true)")
+    private List<CommentDto> comments;
+}
@@ -0,0 +1,41 @@
+package ru.avito.marketplace.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonRawValue;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import ru.avito.marketplace.entity.OutboxEvent;
+
+import java.time.OffsetDateTime;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@Schema(description = "Изменение объявления или комментария")
+public class ChangeEventDto {
+
+    @Schema(description = "Позиция в потоке изменений; передается как after или Last-Event-ID для продолжения", example = "1042")
+    private Long position;
+
+    @Schema(description = "Тип сущности", example = "COMMENT")
+    private OutboxEvent.Aggregate aggregate;
+
+    @Schema(description = "ID сущности", example = "17")
+    private Integer aggregateId;
+
+    @Schema(description = "ID объявления (для комментария - объявления, к которому он относится)", example = "3")
+    private Integer adId;
+
+    @Schema(description = "Вид изменения", example = "UPDATED")
+    private OutboxEvent.Type type;
+
+    @JsonRawValue
+    @Schema(description = "Состояние после изменения (AdDto или CommentDto); у удаления отсутствует")
+    private String payload;
+
+    @Schema(description = "Время изменения", example = "2024-01-15T10:30:00Z")
+    private OffsetDateTime createdAt;
+}
@@ -1,11 +1,15 @@
 package ru.avito.marketplace.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 import java.time.OffsetDateTime;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 @Schema(description = "Комментарий к объявлению")
 public class CommentDto {
 
@@ -1,9 +1,13 @@
 package ru.avito.marketplace.dto;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 @Data
+@NoArgsConstructor
+@AllArgsConstructor
 @Schema(description = "Расширенная информация об объявлении")
 public class ExtendedAdDto {
 
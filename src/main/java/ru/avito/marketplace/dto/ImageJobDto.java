@@ -0,0 +1,34 @@
+package ru.avito.marketplace.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.UUID;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Задание фоновой обработки загруженного изображения")
+public class ImageJobDto {
+
+    @Schema(description = "Идентификатор задания", example = "3f2b8c1e-6d4a-4f7b-9a51-0c2e7d9b1a64")
+    private UUID id;
+
+    @Schema(description = "Состояние задания", example = "PENDING")
+    private Status status;
+
+    @Schema(description = "Путь к сохраненному изображению, когда задание выполнено", example = "/images/ads/ab/cd/abcd.jpg")
+    private String image;
+
+    @Schema(description = "Причина ошибки, если задание не выполнено", example = "Недопустимый тип изображения")
+    private String error;
+
+    public enum Status {
+        PENDING,
+        PROCESSING,
+        DONE,
+        FAILED
+    }
+}
@@ -0,0 +1,19 @@
+package ru.avito.marketplace.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Ошибка импорта строки")
+public class ImportError {
+
+    @Schema(description = "Номер строки во входных данных (с 1)", example = "17")
+    private Long line;
+
+    @Schema(description = "Причина ошибки", example = "price: Цена не может быть отрицательной")
+    private String message;
+}
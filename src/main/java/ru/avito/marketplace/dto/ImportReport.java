@@ -0,0 +1,24 @@
+package ru.avito.marketplace.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Результат пакетного импорта")
+public class ImportReport {
+
+    @Schema(description = "Количество сохраненных записей", example = "99998")
+    private Long imported;
+
+    @Schema(description = "Количество отклоненных строк", example = "2")
+    private Long failed;
+
+    @Schema(description = "Ошибки по строкам (не больше avito.ads.import.max-reported-errors)")
+    private List<ImportError> errors;
+}
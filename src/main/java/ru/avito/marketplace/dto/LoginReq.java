@@ -5,7 +5,7 @@ import jakarta.validation.constraints.NotBlank;
 import lombok.Data;
 
 @Data
-@Schema(description = "Запрос на аутентификацию (может не использоваться с Basic Auth)")
+@Schema(description = "Запрос на аутентификацию")
 public class LoginReq {
 
     @Schema(description = "Email пользователя", example = "user@example.com")
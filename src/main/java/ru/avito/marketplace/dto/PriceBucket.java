@@ -0,0 +1,24 @@
+package ru.avito.marketplace.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import io.swagger.v3.oas.annotations.media.Schema;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Schema(description = "Интервал гистограммы цен")
+public class PriceBucket {
+
+    @Schema(description = "Нижняя граница цены (включительно)", example = "1000")
+    private Integer from;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Верхняя граница цены (не включительно), отсутствует у последнего интервала", example = "5000")
+    private Integer to;
+
+    @Schema(description = "Количество объявлений в интервале", example = "42")
+    private Integer count;
+}
@@ -0,0 +1,14 @@
+package ru.avito.marketplace.dto;
+
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.NotBlank;
+import lombok.Data;
+
+@Data
+@Schema(description = "Запрос на обновление access-токена")
+public class RefreshTokenReq {
+
+    @Schema(description = "Refresh-токен, выданный при входе")
+    @NotBlank(message = "Refresh-токен не может быть пустым")
+    private String refreshToken;
+}
@@ -1,5 +1,6 @@
 package ru.avito.marketplace.dto;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
 import io.swagger.v3.oas.annotations.media.Schema;
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -13,12 +14,26 @@ import java.util.List;
 @Schema(description = "Обертка для списков с пагинацией")
 public class ResponseWrapper<T> {
 
-    @Schema(description = "Общее количество элементов", example = "1")
+    @Schema(description = "Количество элементов в ответе", example = "1")
     private Integer count;
 
     @Schema(description = "Список элементов")
     private List<T> results;
 
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Курсор следующей страницы (отсутствует на последней странице)",
+            example = "MjAyNC0wMS0xNVQxMDozMDowMFp8NDI")
+    private String next;
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    @Schema(description = "Гистограмма цен (только при facets=true)")
+    private List<PriceBucket> priceHistogram;
+
+    public ResponseWrapper(Integer count, List<T> results) {
+        this.count = count;
+        this.results = results;
+    }
+
     // Удобный конструктор
     public ResponseWrapper(List<T> results) {
         this.results = results;
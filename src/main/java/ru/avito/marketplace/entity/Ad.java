@@ -4,6 +4,7 @@ import jakarta.persistence.*;
 import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
+import org.hibernate.annotations.ColumnDefault;
 import org.hibernate.annotations.CreationTimestamp;
 
 import java.time.OffsetDateTime;
@@ -11,7 +12,11 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "ads")
+@Table(name = "ads", indexes = {
+        @Index(name = "idx_ad_created_at_id", columnList = "created_at, id"),
+        @Index(name = "idx_ad_author_created_at_id", columnList = "author_id, created_at, id"),
+        @Index(name = "idx_ad_image", columnList = "image")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -38,6 +43,11 @@ public class Ad {
     @Column(name = "created_at", nullable = false, updatable = false)
     private OffsetDateTime createdAt;
 
+    // Денормализованное количество комментариев; меняется только атомарным UPDATE из CommentService
+    @ColumnDefault("0")
+    @Column(name = "comment_count", nullable = false, insertable = false, updatable = false)
+    private Integer commentCount = 0;
+
     @ManyToOne(fetch = FetchType.LAZY)
     @JoinColumn(name = "author_id", nullable = false)
     private User author;
@@ -9,7 +9,9 @@ import org.hibernate.annotations.CreationTimestamp;
 import java.time.OffsetDateTime;
 
 @Entity
-@Table(name = "comments")
+@Table(name = "comments", indexes = {
+        @Index(name = "idx_comment_ad_created_at_id", columnList = "ad_id, created_at, id")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
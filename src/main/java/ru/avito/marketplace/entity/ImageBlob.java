@@ -0,0 +1,24 @@
+package ru.avito.marketplace.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Счетчик ссылок на файл изображения в контентно-адресуемом хранилище
+ */
+@Entity
+@Table(name = "image_blobs")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ImageBlob {
+
+    @Id
+    @Column(name = "path", length = 500)
+    private String path;
+
+    @Column(name = "ref_count", nullable = false)
+    private Integer refCount;
+}
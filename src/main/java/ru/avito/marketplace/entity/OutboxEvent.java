@@ -0,0 +1,69 @@
+package ru.avito.marketplace.entity;
+
+import jakarta.persistence.*;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Событие изменения объявления или комментария, записанное в транзакции самого изменения.
+ * Строки пишутся через ChangeOutbox, позицию в потоке назначает OutboxRelay после коммита.
+ */
+@Entity
+@Table(name = "outbox_events", indexes = {
+        @Index(name = "idx_outbox_position", columnList = "stream_position", unique = true)
+})
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class OutboxEvent {
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    @Column(name = "id")
+    private Long id;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "aggregate", nullable = false, length = 16)
+    private Aggregate aggregate;
+
+    @Column(name = "aggregate_id", nullable = false)
+    private Integer aggregateId;
+
+    // Для объявления совпадает с aggregate_id
+    @Column(name = "ad_id", nullable = false)
+    private Integer adId;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "type", nullable = false, length = 16)
+    private Type type;
+
+    // JSON состояния после изменения; у удаления пусто
+    @Column(name = "payload", columnDefinition = "text")
+    private String payload;
+
+    @Column(name = "created_at", nullable = false)
+    private OffsetDateTime createdAt;
+
+    // Транзакция записи: позиции назначаются только строкам транзакций, которые уже не могут закоммититься позже
+    @Column(name = "tx_id", columnDefinition = "xid8 NOT NULL DEFAULT pg_current_xact_id()",
+            insertable = false, updatable = false)
+    private String txId;
+
+    // Номер в потоке изменений: без пропусков, одинаковый на всех узлах
+    @Column(name = "stream_position", insertable = false, updatable = false)
+    private Long position;
+
+    public enum Aggregate {
+        AD,
+        COMMENT
+    }
+
+    public enum Type {
+        CREATED,
+        UPDATED,
+        DELETED
+    }
+}
@@ -9,7 +9,9 @@ import java.util.ArrayList;
 import java.util.List;
 
 @Entity
-@Table(name = "users")
+@Table(name = "users", indexes = {
+        @Index(name = "idx_user_image", columnList = "image")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -0,0 +1,11 @@
+package ru.avito.marketplace.exception;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.web.bind.annotation.ResponseStatus;
+
+@ResponseStatus(HttpStatus.NOT_FOUND)
+public class ImageJobNotFoundException extends RuntimeException {
+    public ImageJobNotFoundException(String message) {
+        super(message);
+    }
+}
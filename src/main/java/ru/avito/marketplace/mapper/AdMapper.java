@@ -5,6 +5,7 @@ import ru.avito.marketplace.dto.AdDto;
 import ru.avito.marketplace.dto.CreateOrUpdateAdDto;
 import ru.avito.marketplace.dto.ExtendedAdDto;
 import ru.avito.marketplace.entity.Ad;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
 
@@ -21,6 +22,8 @@ public interface AdMapper {
     @Mapping(target = "authorId", source = "author.id")
     AdDto toAdDto(Ad ad);
 
+    AdDto toAdDto(AdFeedRow row);
+
     @Mapping(target = "authorFirstName", source = "author.firstName")
     @Mapping(target = "authorLastName", source = "author.lastName")
     @Mapping(target = "email", source = "author.email")
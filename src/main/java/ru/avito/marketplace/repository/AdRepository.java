@@ -1,23 +1,127 @@
 package ru.avito.marketplace.repository;
 
+import ru.avito.marketplace.dto.AdDto;
+import ru.avito.marketplace.dto.ExtendedAdDto;
 import ru.avito.marketplace.entity.Ad;
-import ru.avito.marketplace.entity.User;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.avito.marketplace.repository.projection.AdCommentCountRow;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
+import ru.avito.marketplace.repository.projection.AdPriceRow;
 
+import java.time.OffsetDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 
 @Repository
 public interface AdRepository extends JpaRepository<Ad, Integer> {
 
-    List<Ad> findAllByAuthor(User author);
+    // Какие из путей-кандидатов еще упоминаются в объявлениях (поиск файлов-сирот пачками)
+    @Query("SELECT DISTINCT a.image FROM Ad a WHERE a.image IN :images")
+    List<String> findImagesIn(@Param("images") Collection<String> images);
 
     @Query("SELECT a FROM Ad a LEFT JOIN FETCH a.author WHERE a.id = :id")
     Optional<Ad> findByIdWithAuthor(@Param("id") Integer id);
 
     @Query("SELECT a FROM Ad a LEFT JOIN FETCH a.author")
     List<Ad> findAllWithAuthor();
+
+    // Только id автора - для проверок прав без загрузки объявления
+    @Query("SELECT a.author.id FROM Ad a WHERE a.id = :id")
+    Optional<Integer> findAuthorIdById(@Param("id") Integer id);
+
+    // Первая страница ленты: новые объявления сверху
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdFeedRow(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount, a.createdAt) " +
+            "FROM Ad a WHERE a.price BETWEEN :minPrice AND :maxPrice " +
+            "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AdFeedRow> findFeedFirstPage(@Param("minPrice") Integer minPrice,
+                                      @Param("maxPrice") Integer maxPrice,
+                                      Pageable pageable);
+
+    // Порции для построения поискового индекса: keyset по id
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdFeedRow(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount, a.createdAt) " +
+            "FROM Ad a WHERE a.id > :id ORDER BY a.id")
+    List<AdFeedRow> findSearchRowsAfter(@Param("id") Integer id, Pageable pageable);
+
+    // Текущие строки объявлений, измененных на другом узле
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdFeedRow(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount, a.createdAt) " +
+            "FROM Ad a WHERE a.id IN :ids")
+    List<AdFeedRow> findSearchRowsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Следующая страница ленты: keyset по (created_at, id) вместо OFFSET
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdFeedRow(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount, a.createdAt) " +
+            "FROM Ad a " +
+            "WHERE (a.createdAt < :createdAt OR (a.createdAt = :createdAt AND a.id < :id)) " +
+            "AND a.price BETWEEN :minPrice AND :maxPrice " +
+            "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AdFeedRow> findFeedPageAfter(@Param("createdAt") OffsetDateTime createdAt,
+                                      @Param("id") Integer id,
+                                      @Param("minPrice") Integer minPrice,
+                                      @Param("maxPrice") Integer maxPrice,
+                                      Pageable pageable);
+
+    // Страница выдачи по цене: порядок задает индекс цен, из БД берутся только строки по первичному ключу
+    @Query("SELECT new ru.avito.marketplace.dto.AdDto(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount) " +
+            "FROM Ad a WHERE a.id IN :ids")
+    List<AdDto> findAllDtoByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Актуальные счетчики комментариев для объявлений, взятых из индексов в памяти
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdCommentCountRow(a.id, a.commentCount) " +
+            "FROM Ad a WHERE a.id IN :ids")
+    List<AdCommentCountRow> findCommentCountsByIdIn(@Param("ids") Collection<Integer> ids);
+
+    // Удаление без загрузки сущности: одна строка с путем изображения (может быть null), пустой список - объявления нет.
+    // Комментарии должны быть удалены заранее
+    @Query(value = "DELETE FROM ads WHERE id = :id RETURNING image", nativeQuery = true)
+    List<String> deleteReturningImage(@Param("id") Integer id);
+
+    // Атомарное изменение счетчика комментариев без чтения объявления; счетчик не уходит ниже нуля
+    @Modifying
+    @Query("UPDATE Ad a SET a.commentCount = greatest(a.commentCount + :delta, 0) WHERE a.id = :id")
+    int adjustCommentCount(@Param("id") Integer id, @Param("delta") int delta);
+
+    // Пересчет счетчиков по таблице комментариев; меняются только расходящиеся строки, повторный запуск ничего не трогает
+    @Modifying
+    @Query(value = "UPDATE ads a SET comment_count = counted.total " +
+            "FROM (SELECT ad.id, COUNT(c.id) AS total FROM ads ad LEFT JOIN comments c ON c.ad_id = ad.id " +
+            "GROUP BY ad.id) counted " +
+            "WHERE a.id = counted.id AND a.comment_count <> counted.total", nativeQuery = true)
+    int reconcileCommentCounts();
+
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdPriceRow(a.id, a.price) " +
+            "FROM Ad a WHERE a.id > :id ORDER BY a.id")
+    List<AdPriceRow> findPriceRowsAfter(@Param("id") Integer id, Pageable pageable);
+
+    // Карточка объявления сразу в DTO, без гидрации сущностей и прокси автора
+    @Query("SELECT new ru.avito.marketplace.dto.ExtendedAdDto(" +
+            "a.id, u.firstName, u.lastName, a.description, u.email, a.image, u.phone, a.price, a.title) " +
+            "FROM Ad a JOIN a.author u WHERE a.id = :id")
+    Optional<ExtendedAdDto> findExtendedDtoById(@Param("id") Integer id);
+
+    // Первая страница объявлений автора по индексу (author_id, created_at, id), без join с users
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdFeedRow(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount, a.createdAt) " +
+            "FROM Ad a WHERE a.author.id = :authorId " +
+            "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AdFeedRow> findAuthorFirstPage(@Param("authorId") Integer authorId, Pageable pageable);
+
+    @Query("SELECT new ru.avito.marketplace.repository.projection.AdFeedRow(" +
+            "a.id, a.author.id, a.image, a.price, a.title, a.description, a.commentCount, a.createdAt) " +
+            "FROM Ad a WHERE a.author.id = :authorId " +
+            "AND (a.createdAt < :createdAt OR (a.createdAt = :createdAt AND a.id < :id)) " +
+            "ORDER BY a.createdAt DESC, a.id DESC")
+    List<AdFeedRow> findAuthorPageAfter(@Param("authorId") Integer authorId,
+                                        @Param("createdAt") OffsetDateTime createdAt,
+                                        @Param("id") Integer id,
+                                        Pageable pageable);
 }
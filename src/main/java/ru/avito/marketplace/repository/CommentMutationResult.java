@@ -0,0 +1,11 @@
+package ru.avito.marketplace.repository;
+
+/**
+ * Результат условного изменения комментария одним запросом.
+ */
+public enum CommentMutationResult {
+    DONE,
+    AD_NOT_FOUND,
+    COMMENT_NOT_FOUND,
+    FORBIDDEN
+}
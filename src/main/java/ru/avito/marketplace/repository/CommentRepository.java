@@ -1,12 +1,16 @@
 package ru.avito.marketplace.repository;
 
+import ru.avito.marketplace.dto.CommentDto;
 import ru.avito.marketplace.entity.Ad;
 import ru.avito.marketplace.entity.Comment;
+import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.time.OffsetDateTime;
 import java.util.List;
 import java.util.Optional;
 
@@ -15,8 +19,65 @@ public interface CommentRepository extends JpaRepository<Comment, Integer> {
 
     List<Comment> findAllByAd(Ad ad);
 
-    Optional<Comment> findByIdAndAd(Integer id, Ad ad);
+    // Все комментарии объявления одним запросом, без загрузки сущностей
+    @Modifying
+    @Query("DELETE FROM Comment c WHERE c.ad.id = :adId")
+    int deleteAllByAdId(@Param("adId") Integer adId);
+
+    // Комментарий по id объявления, без загрузки самого объявления; автор нужен для ответа
+    @Query("SELECT c FROM Comment c JOIN FETCH c.author WHERE c.id = :id AND c.ad.id = :adId")
+    Optional<Comment> findByIdAndAdId(@Param("id") Integer id, @Param("adId") Integer adId);
+
+    /**
+     * Удаление комментария автором или администратором вместе с уменьшением счетчика объявления.
+     * Один запрос: причина неудачи определяется по тому же снимку данных
+     */
+    default CommentMutationResult deleteIfPermitted(Integer adId, Integer id, Integer authorId, boolean admin) {
+        return CommentMutationResult.valueOf(deleteAndReport(adId, id, authorId, admin));
+    }
+
+    @Query(value = "WITH deleted AS (" +
+            "DELETE FROM comments WHERE id = :id AND ad_id = :adId AND (author_id = :authorId OR :admin) " +
+            "RETURNING ad_id), " +
+            "counted AS (" +
+            "UPDATE ads SET comment_count = GREATEST(comment_count - 1, 0) WHERE id IN (SELECT ad_id FROM deleted)) " +
+            "SELECT CASE " +
+            "WHEN EXISTS (SELECT 1 FROM deleted) THEN 'DONE' " +
+            "WHEN NOT EXISTS (SELECT 1 FROM ads WHERE id = :adId) THEN 'AD_NOT_FOUND' " +
+            "WHEN NOT EXISTS (SELECT 1 FROM comments WHERE id = :id AND ad_id = :adId) THEN 'COMMENT_NOT_FOUND' " +
+            "ELSE 'FORBIDDEN' END", nativeQuery = true)
+    String deleteAndReport(@Param("adId") Integer adId,
+                           @Param("id") Integer id,
+                           @Param("authorId") Integer authorId,
+                           @Param("admin") boolean admin);
 
     @Query("SELECT c FROM Comment c LEFT JOIN FETCH c.author WHERE c.ad = :ad ORDER BY c.createdAt DESC")
     List<Comment> findAllByAdWithAuthor(@Param("ad") Ad ad);
+
+    // Только id автора - для проверок прав без загрузки комментария
+    @Query("SELECT c.author.id FROM Comment c WHERE c.id = :id")
+    Optional<Integer> findAuthorIdById(@Param("id") Integer id);
+
+    // Первая страница комментариев объявления сразу в DTO, без гидрации сущностей
+    @Query("SELECT new ru.avito.marketplace.dto.CommentDto(" +
+            "c.id, u.id, u.image, u.firstName, c.createdAt, c.text) " +
+            "FROM Comment c JOIN c.author u WHERE c.ad.id = :adId " +
+            "ORDER BY c.createdAt DESC, c.id DESC")
+    List<CommentDto> findDtoFirstPageByAdId(@Param("adId") Integer adId, Pageable pageable);
+
+    // Следующая страница: keyset по (created_at, id) вместо OFFSET
+    @Query("SELECT new ru.avito.marketplace.dto.CommentDto(" +
+            "c.id, u.id, u.image, u.firstName, c.createdAt, c.text) " +
+            "FROM Comment c JOIN c.author u WHERE c.ad.id = :adId " +
+            "AND (c.createdAt < :createdAt OR (c.createdAt = :createdAt AND c.id < :id)) " +
+            "ORDER BY c.createdAt DESC, c.id DESC")
+    List<CommentDto> findDtoPageByAdIdAfter(@Param("adId") Integer adId,
+                                            @Param("createdAt") OffsetDateTime createdAt,
+                                            @Param("id") Integer id,
+                                            Pageable pageable);
+
+    @Query("SELECT new ru.avito.marketplace.dto.CommentDto(" +
+            "c.id, u.id, u.image, u.firstName, c.createdAt, c.text) " +
+            "FROM Comment c JOIN c.author u WHERE c.id = :id AND c.ad.id = :adId")
+    Optional<CommentDto> findDtoByIdAndAdId(@Param("id") Integer id, @Param("adId") Integer adId);
 }
\ No newline at end of file
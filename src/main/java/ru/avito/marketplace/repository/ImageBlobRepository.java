@@ -0,0 +1,38 @@
+package ru.avito.marketplace.repository;
+
+import ru.avito.marketplace.entity.ImageBlob;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Optional;
+
+@Repository
+public interface ImageBlobRepository extends JpaRepository<ImageBlob, String> {
+
+    // Блокировка строки до конца транзакции упорядочивает загрузку и удаление одного и того же файла
+    @Modifying
+    @Query(value = "INSERT INTO image_blobs (path, ref_count) VALUES (:path, 1) " +
+            "ON CONFLICT (path) DO UPDATE SET ref_count = image_blobs.ref_count + 1", nativeQuery = true)
+    void acquire(@Param("path") String path);
+
+    // 0 - у файла нет счетчика (загружен до включения контентной адресации)
+    @Modifying
+    @Query("UPDATE ImageBlob b SET b.refCount = b.refCount - 1 WHERE b.path = :path")
+    int release(@Param("path") String path);
+
+    // Блокирует строку счетчика (создавая ее с нулем при отсутствии) на время проверки и удаления файла
+    @Modifying
+    @Query(value = "INSERT INTO image_blobs (path, ref_count) VALUES (:path, 0) " +
+            "ON CONFLICT (path) DO UPDATE SET ref_count = image_blobs.ref_count", nativeQuery = true)
+    void lockForDeletion(@Param("path") String path);
+
+    @Query("SELECT b.refCount FROM ImageBlob b WHERE b.path = :path")
+    Optional<Integer> findRefCount(@Param("path") String path);
+
+    @Modifying
+    @Query("DELETE FROM ImageBlob b WHERE b.path = :path AND b.refCount <= 0")
+    int deleteIfUnreferenced(@Param("path") String path);
+}
@@ -0,0 +1,49 @@
+package ru.avito.marketplace.repository;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+import ru.avito.marketplace.dto.ChangeEventDto;
+import ru.avito.marketplace.entity.OutboxEvent;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+@Repository
+public interface OutboxEventRepository extends JpaRepository<OutboxEvent, Long> {
+
+    // Позиции назначает один узел за раз; блокировка снимается с концом транзакции
+    @Query(value = "SELECT pg_try_advisory_xact_lock(:key)", nativeQuery = true)
+    boolean tryLockSequencer(@Param("key") long key);
+
+    /**
+     * Назначение позиций строкам завершенных транзакций в порядке (tx_id, id).
+     * Транзакции с tx_id ниже xmin снимка уже закоммичены или отменены,
+     * поэтому строка с меньшим порядком не может появиться после назначенной позиции.
+     */
+    @Modifying
+    @Query(value = "WITH head AS (SELECT COALESCE(MAX(stream_position), 0) AS last_position FROM outbox_events), " +
+            "ready AS (SELECT r.id, row_number() OVER (ORDER BY r.tx_id, r.id) AS n FROM (" +
+            "SELECT id, tx_id FROM outbox_events " +
+            "WHERE stream_position IS NULL AND tx_id < pg_snapshot_xmin(pg_current_snapshot()) " +
+            "ORDER BY tx_id, id LIMIT :limit) r) " +
+            "UPDATE outbox_events e SET stream_position = head.last_position + ready.n " +
+            "FROM head, ready WHERE e.id = ready.id", nativeQuery = true)
+    int assignPositions(@Param("limit") int limit);
+
+    @Query("SELECT COALESCE(MAX(e.position), 0) FROM OutboxEvent e")
+    long findHeadPosition();
+
+    @Query("SELECT new ru.avito.marketplace.dto.ChangeEventDto(e.position, e.aggregate, e.aggregateId, e.adId, " +
+            "e.type, e.payload, e.createdAt) FROM OutboxEvent e WHERE e.position > :after ORDER BY e.position")
+    List<ChangeEventDto> findPublishedAfter(@Param("after") long after, Pageable pageable);
+
+    // Последняя опубликованная строка остается: от нее считается следующая позиция
+    @Modifying
+    @Query(value = "DELETE FROM outbox_events WHERE created_at < :cutoff " +
+            "AND stream_position < (SELECT MAX(stream_position) FROM outbox_events)", nativeQuery = true)
+    int deletePublishedBefore(@Param("cutoff") OffsetDateTime cutoff);
+}
@@ -1,9 +1,15 @@
 package ru.avito.marketplace.repository;
 
+import ru.avito.marketplace.dto.UserDto;
 import ru.avito.marketplace.entity.User;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
+import ru.avito.marketplace.repository.projection.UserPrincipal;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -13,5 +19,19 @@ public interface UserRepository extends JpaRepository<User, Integer> {
 
     boolean existsByEmail(String email);
 
+    // Какие из путей-кандидатов еще упоминаются в профилях (поиск файлов-сирот пачками)
+    @Query("SELECT DISTINCT u.image FROM User u WHERE u.image IN :images")
+    List<String> findImagesIn(@Param("images") Collection<String> images);
+
     Optional<User> findByEmailIgnoreCase(String email);
+
+    // Профиль сразу в DTO, без загрузки сущности с коллекциями
+    @Query("SELECT new ru.avito.marketplace.dto.UserDto(" +
+            "u.id, u.email, u.firstName, u.lastName, u.phone, u.image, u.role) " +
+            "FROM User u WHERE u.email = :email")
+    Optional<UserDto> findDtoByEmail(@Param("email") String email);
+
+    @Query("SELECT new ru.avito.marketplace.repository.projection.UserPrincipal(u.id, u.email, u.role) " +
+            "FROM User u WHERE u.email = :email")
+    Optional<UserPrincipal> findPrincipalByEmail(@Param("email") String email);
 }
\ No newline at end of file
@@ -0,0 +1,7 @@
+package ru.avito.marketplace.repository.projection;
+
+/**
+ * Счетчик комментариев объявления.
+ */
+public record AdCommentCountRow(Integer id, Integer commentCount) {
+}
@@ -0,0 +1,18 @@
+package ru.avito.marketplace.repository.projection;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Строка ленты объявлений: поля AdDto плюс created_at для курсора следующей страницы.
+ */
+public record AdFeedRow(
+        Integer id,
+        Integer authorId,
+        String image,
+        Integer price,
+        String title,
+        String description,
+        Integer commentCount,
+        OffsetDateTime createdAt
+) {
+}
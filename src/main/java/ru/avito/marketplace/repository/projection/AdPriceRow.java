@@ -0,0 +1,7 @@
+package ru.avito.marketplace.repository.projection;
+
+/**
+ * Цена объявления для построения индекса цен
+ */
+public record AdPriceRow(Integer id, Integer price) {
+}
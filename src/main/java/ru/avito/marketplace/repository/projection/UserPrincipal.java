@@ -0,0 +1,17 @@
+package ru.avito.marketplace.repository.projection;
+
+import ru.avito.marketplace.constants.ApiConstants;
+
+/**
+ * Минимальные сведения о пользователе, нужные для проверок доступа.
+ */
+public record UserPrincipal(
+        Integer id,
+        String email,
+        String role
+) {
+
+    public boolean isAdmin() {
+        return ApiConstants.ROLE_ADMIN.equals(role);
+    }
+}
@@ -0,0 +1,188 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import ru.avito.marketplace.dto.ExtendedAdDto;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Кэш карточек объявлений (GET /ads/{id}) в виде готового JSON.
+ * Промах под нагрузкой приводит к одной загрузке из БД: параллельные запросы ждут ее результата.
+ * Данные автора (имя, телефон) встроены в карточку, поэтому карточка помнит email автора и версию,
+ * под которой загружена: изменение профиля отмечается одной записью на автора, без перебора его объявлений.
+ */
+@Slf4j
+@Component
+public class AdCardCache {
+
+    private final ObjectMapper objectMapper;
+    // Сколько изменений авторов помнить; при превышении кэш сбрасывается целиком
+    private static final int MAX_AUTHOR_VERSIONS = 100_000;
+
+    private final BoundedExpiringCache<Integer, Card> entries;
+    private final ConcurrentMap<Integer, CompletableFuture<byte[]>> inFlight = new ConcurrentHashMap<>();
+    private final Counter hits;
+    private final Counter misses;
+    private final Counter coalesced;
+
+    // Увеличивается при каждой инвалидации, чтобы загрузка, начатая до изменения, не попала в кэш
+    private final AtomicLong generation = new AtomicLong();
+    // Возрастающий счетчик версий: карточка хранит значение до загрузки, автор - значение последнего изменения
+    private final AtomicLong sequence = new AtomicLong();
+    private final ConcurrentMap<String, Long> authorVersions = new ConcurrentHashMap<>();
+
+    public AdCardCache(ObjectMapper objectMapper,
+                       MeterRegistry meterRegistry,
+                       @Value("${avito.ads.card-cache.ttl:10m}") Duration ttl,
+                       @Value("${avito.ads.card-cache.max-size:10000}") int maxSize) {
+        this.objectMapper = objectMapper;
+        this.entries = new BoundedExpiringCache<>(maxSize, ttl);
+
+        this.hits = Counter.builder("avito.ads.card.cache")
+                .tag("result", "hit")
+                .description("Ad cards served from the cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("avito.ads.card.cache")
+                .tag("result", "miss")
+                .description("Ad cards loaded from the database")
+                .register(meterRegistry);
+        this.coalesced = Counter.builder("avito.ads.card.cache")
+                .tag("result", "coalesced")
+                .description("Ad card misses that waited for a load already in progress")
+                .register(meterRegistry);
+        Gauge.builder("avito.ads.card.cache.size", entries, BoundedExpiringCache::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * JSON карточки объявления из кэша или из loader при промахе
+     */
+    public byte[] get(Integer adId, Supplier<ExtendedAdDto> loader) {
+        Card cached = entries.get(adId);
+        if (cached != null && isCurrent(cached)) {
+            hits.increment();
+            return cached.json();
+        }
+
+        CompletableFuture<byte[]> own = new CompletableFuture<>();
+        CompletableFuture<byte[]> running = inFlight.putIfAbsent(adId, own);
+        if (running != null) {
+            coalesced.increment();
+            return join(running);
+        }
+
+        misses.increment();
+        long loadGeneration = generation.get();
+        long version = sequence.get();
+        try {
+            ExtendedAdDto ad = loader.get();
+            byte[] json = objectMapper.writeValueAsBytes(ad);
+            putIfCurrent(adId, new Card(json, ad.getEmail(), version), loadGeneration);
+            own.complete(json);
+            return json;
+        } catch (JsonProcessingException e) {
+            own.completeExceptionally(e);
+            throw new IllegalStateException("Не удалось сериализовать объявление " + adId, e);
+        } catch (RuntimeException e) {
+            // Ожидающие запросы получат то же исключение (например, объявление не найдено)
+            own.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(adId, own);
+        }
+    }
+
+    /**
+     * Сброс карточки после коммита текущей транзакции
+     */
+    public void evictAfterCommit(Integer adId) {
+        evictAfterCommit(List.of(adId));
+    }
+
+    public void evictAfterCommit(Collection<Integer> adIds) {
+        if (adIds.isEmpty()) {
+            return;
+        }
+        AfterCommit.run(() -> evict(adIds));
+    }
+
+    /**
+     * Сброс карточек всех объявлений автора после коммита текущей транзакции (изменен профиль)
+     * @param authorEmail email автора, как в карточке
+     */
+    public void authorChangedAfterCommit(String authorEmail) {
+        AfterCommit.run(() -> authorChanged(authorEmail));
+    }
+
+    /**
+     * Полный сброс кэша
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+        inFlight.clear();
+        authorVersions.clear();
+        log.debug("Ad card cache cleared");
+    }
+
+    private void authorChanged(String authorEmail) {
+        authorVersions.merge(authorEmail, sequence.incrementAndGet(), Math::max);
+        if (authorVersions.size() > MAX_AUTHOR_VERSIONS) {
+            clear();
+            return;
+        }
+        log.debug("Ad card cache author changed: {}", authorEmail);
+    }
+
+    private boolean isCurrent(Card card) {
+        Long authorVersion = card.author() != null ? authorVersions.get(card.author()) : null;
+        return authorVersion == null || authorVersion <= card.version();
+    }
+
+    private void evict(Collection<Integer> adIds) {
+        generation.incrementAndGet();
+        for (Integer adId : adIds) {
+            entries.remove(adId);
+            // Новые запросы не должны присоединяться к загрузке, начатой до изменения
+            inFlight.remove(adId);
+        }
+        log.debug("Ad card cache evicted: {}", adIds);
+    }
+
+    private void putIfCurrent(Integer adId, Card card, long loadGeneration) {
+        synchronized (entries) {
+            if (generation.get() == loadGeneration) {
+                entries.put(adId, card);
+            }
+        }
+    }
+
+    private byte[] join(CompletableFuture<byte[]> running) {
+        try {
+            return running.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException cause) {
+                throw cause;
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private record Card(byte[] json, String author, long version) {
+    }
+}
@@ -0,0 +1,259 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter;
+import ru.avito.marketplace.dto.AdExportDto;
+import ru.avito.marketplace.dto.CommentDto;
+import ru.avito.marketplace.exception.ExportBusyException;
+
+import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Потоковая выгрузка объявлений (и при необходимости комментариев) в NDJSON.
+ * Строки читаются курсором БД порциями по fetch-size и сразу пишутся в ответ,
+ * поэтому расход памяти не зависит от размера таблиц.
+ * Выгрузка идет в собственном пуле через ResponseBodyEmitter со своим таймаутом,
+ * чтобы длинный таймаут не распространялся на остальные асинхронные ответы.
+ */
+@Slf4j
+@Service
+public class AdExportService {
+
+    private static final String AD_COLUMNS =
+            "a.id, a.author_id, a.image, a.price, a.title, a.description, a.comment_count, a.created_at";
+
+    // Порядок (created_at, id) по возрастанию: отметка последней строки продолжает выгрузку
+    private static final String SELECT_ADS = "SELECT " + AD_COLUMNS + " FROM ads a " +
+            "WHERE (a.created_at, a.id) > (?, ?) ORDER BY a.created_at, a.id";
+
+    // Комментарии одним проходом вместе с объявлениями; строки одного объявления идут подряд
+    private static final String SELECT_ADS_WITH_COMMENTS = "SELECT " + AD_COLUMNS + ", " +
+            "c.id AS comment_id, u.id AS comment_author_id, u.image AS comment_author_image, " +
+            "u.first_name AS comment_author_first_name, c.created_at AS comment_created_at, c.text AS comment_text " +
+            "FROM ads a " +
+            "LEFT JOIN comments c ON c.ad_id = a.id " +
+            "LEFT JOIN users u ON u.id = c.author_id " +
+            "WHERE (a.created_at, a.id) > (?, ?) ORDER BY a.created_at, a.id, c.created_at, c.id";
+
+    private static final Timestamp BEGINNING = Timestamp.from(OffsetDateTime.of(
+            1970, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC).toInstant());
+
+    // Размер порции, отправляемой клиенту одной записью
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter lineWriter;
+    private final ThreadPoolTaskExecutor executor;
+    private final Duration timeout;
+
+    public AdExportService(DataSource dataSource,
+                           PlatformTransactionManager transactionManager,
+                           ObjectMapper objectMapper,
+                           @Qualifier("exportExecutor") ThreadPoolTaskExecutor executor,
+                           @Value("${avito.export.fetch-size:1000}") int fetchSize,
+                           @Value("${avito.export.timeout:1h}") Duration timeout) {
+        this.executor = executor;
+        this.timeout = timeout;
+
+        // Отдельный JdbcTemplate: fetch size нужен только выгрузке
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(fetchSize);
+
+        // PostgreSQL читает курсором только вне autocommit
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+
+        this.lineWriter = objectMapper.writer()
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                .without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+    }
+
+    /**
+     * Запуск выгрузки в пул выгрузок; ответ завершается вместе с ней или по avito.export.timeout
+     * @throws ExportBusyException если все потоки выгрузки заняты
+     */
+    public ResponseBodyEmitter startExport(OffsetDateTime sinceCreatedAt, Integer sinceId, boolean withComments) {
+        ResponseBodyEmitter emitter = new ResponseBodyEmitter(timeout.toMillis());
+        try {
+            executor.execute(() -> {
+                try (OutputStream out = new BufferedOutputStream(new EmitterOutputStream(emitter), CHUNK_SIZE)) {
+                    exportAds(out, sinceCreatedAt, sinceId, withComments);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Ads export aborted: {}", e.getMessage());
+                    emitter.completeWithError(e);
+                    return;
+                }
+                emitter.complete();
+            });
+        } catch (TaskRejectedException e) {
+            throw new ExportBusyException("Выполняется слишком много выгрузок, повторите позже");
+        }
+        return emitter;
+    }
+
+    /**
+     * Выгрузка объявлений, созданных после отметки (sinceCreatedAt, sinceId)
+     * @param sinceCreatedAt created_at последней полученной строки или null для выгрузки с начала
+     * @param sinceId id последней полученной строки
+     */
+    public void exportAds(OutputStream out, OffsetDateTime sinceCreatedAt, Integer sinceId, boolean withComments) {
+        Timestamp since = sinceCreatedAt != null ? Timestamp.from(sinceCreatedAt.toInstant()) : BEGINNING;
+        int afterId = sinceCreatedAt != null && sinceId != null ? sinceId : 0;
+        long started = System.nanoTime();
+
+        long exported = transactionTemplate.execute(status -> {
+            AdLineHandler handler = withComments ? new AdWithCommentsLineHandler(out) : new AdLineHandler(out);
+            jdbcTemplate.query(withComments ? SELECT_ADS_WITH_COMMENTS : SELECT_ADS, handler, since, afterId);
+            handler.finish();
+            return handler.exported;
+        });
+
+        log.info("Ads export finished: {} ads (comments: {}) in {} ms",
+                exported, withComments, (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private class AdLineHandler implements RowCallbackHandler {
+
+        private final OutputStream out;
+        long exported;
+
+        AdLineHandler(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            write(readAd(rs));
+        }
+
+        void finish() {
+            flush();
+        }
+
+        void write(AdExportDto ad) {
+            try {
+                lineWriter.writeValue(out, ad);
+                out.write('\n');
+            } catch (IOException e) {
+                // Клиент отключился - прерываем чтение курсора
+                throw new UncheckedIOException(e);
+            }
+            exported++;
+        }
+
+        void flush() {
+            try {
+                out.flush();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    private class AdWithCommentsLineHandler extends AdLineHandler {
+
+        // Текущее объявление копит свои комментарии, пока не встретится строка следующего
+        private AdExportDto current;
+
+        AdWithCommentsLineHandler(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void processRow(ResultSet rs) throws SQLException {
+            int adId = rs.getInt("id");
+            if (current == null || current.getId() != adId) {
+                if (current != null) {
+                    write(current);
+                }
+                current = readAd(rs);
+                current.setComments(new ArrayList<>());
+            }
+
+            int commentId = rs.getInt("comment_id");
+            if (!rs.wasNull()) {
+                current.getComments().add(new CommentDto(
+                        commentId,
+                        rs.getInt("comment_author_id"),
+                        rs.getString("comment_author_image"),
+                        rs.getString("comment_author_first_name"),
+                        rs.getObject("comment_created_at", OffsetDateTime.class),
+                        rs.getString("comment_text")));
+            }
+        }
+
+        @Override
+        void finish() {
+            if (current != null) {
+                write(current);
+            }
+            super.finish();
+        }
+    }
+
+    private static AdExportDto readAd(ResultSet rs) throws SQLException {
+        return new AdExportDto(
+                rs.getInt("id"),
+                rs.getInt("author_id"),
+                rs.getString("image"),
+                rs.getInt("price"),
+                rs.getString("title"),
+                rs.getString("description"),
+                rs.getInt("comment_count"),
+                rs.getObject("created_at", OffsetDateTime.class),
+                null);
+    }
+
+    /**
+     * Поток поверх ResponseBodyEmitter: каждая запись уходит клиенту отдельной порцией байт.
+     * После таймаута или обрыва соединения запись завершается IOException, и выгрузка прекращается
+     */
+    private static final class EmitterOutputStream extends OutputStream {
+
+        private final ResponseBodyEmitter emitter;
+
+        EmitterOutputStream(ResponseBodyEmitter emitter) {
+            this.emitter = emitter;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                emitter.send(Arrays.copyOfRange(b, off, off + len));
+            } catch (IllegalStateException e) {
+                throw new IOException("Ответ выгрузки уже завершен", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.validation.ConstraintViolation;
+import jakarta.validation.Validator;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.avito.marketplace.dto.AdDto;
+import ru.avito.marketplace.dto.CreateOrUpdateAdDto;
+import ru.avito.marketplace.dto.ImportError;
+import ru.avito.marketplace.dto.ImportReport;
+import ru.avito.marketplace.entity.Ad;
+import ru.avito.marketplace.repository.UserRepository;
+import ru.avito.marketplace.repository.projection.UserPrincipal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.time.OffsetDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Пакетный импорт объявлений из NDJSON (одна CreateOrUpdateAdDto на строку).
+ * Вход читается потоково, в памяти держится только текущая пачка;
+ * каждая пачка вставляется одним JDBC-батчем в своей транзакции.
+ */
+@Slf4j
+@Service
+public class AdImportService {
+
+    private static final String INSERT_AD = "INSERT INTO ads " +
+            "(id, title, description, price, author_id, created_at, comment_count) VALUES (?, ?, ?, ?, ?, ?, 0)";
+
+    // Блок id из последовательности столбца ads.id одним запросом - вместо IDENTITY, отключающего батчи
+    private static final String ALLOCATE_IDS =
+            "SELECT nextval(pg_get_serial_sequence('ads', 'id')) FROM generate_series(1, ?)";
+
+    private final ObjectMapper objectMapper;
+    private final Validator validator;
+    private final JdbcTemplate jdbcTemplate;
+    private final TransactionTemplate transactionTemplate;
+    private final UserRepository userRepository;
+    private final AuthService authService;
+    private final AdSearchIndex adSearchIndex;
+    private final AdPriceIndex adPriceIndex;
+    private final ResponseCache responseCache;
+    private final ChangeOutbox changeOutbox;
+    private final InvalidationBus invalidationBus;
+    private final int batchSize;
+    private final int maxReportedErrors;
+    private final Counter importedRows;
+    private final Counter failedRows;
+    private final Timer batchTimer;
+
+    public AdImportService(ObjectMapper objectMapper,
+                           Validator validator,
+                           JdbcTemplate jdbcTemplate,
+                           TransactionTemplate transactionTemplate,
+                           UserRepository userRepository,
+                           AuthService authService,
+                           AdSearchIndex adSearchIndex,
+                           AdPriceIndex adPriceIndex,
+                           ResponseCache responseCache,
+                           ChangeOutbox changeOutbox,
+                           InvalidationBus invalidationBus,
+                           MeterRegistry meterRegistry,
+                           @Value("${avito.ads.import.batch-size:1000}") int batchSize,
+                           @Value("${avito.ads.import.max-reported-errors:100}") int maxReportedErrors) {
+        this.objectMapper = objectMapper;
+        this.validator = validator;
+        this.jdbcTemplate = jdbcTemplate;
+        this.transactionTemplate = transactionTemplate;
+        this.userRepository = userRepository;
+        this.authService = authService;
+        this.adSearchIndex = adSearchIndex;
+        this.adPriceIndex = adPriceIndex;
+        this.responseCache = responseCache;
+        this.changeOutbox = changeOutbox;
+        this.invalidationBus = invalidationBus;
+        this.batchSize = batchSize;
+        this.maxReportedErrors = maxReportedErrors;
+
+        this.importedRows = Counter.builder("avito.ads.import.rows")
+                .tag("result", "imported")
+                .description("Ads inserted by bulk import")
+                .register(meterRegistry);
+        this.failedRows = Counter.builder("avito.ads.import.rows")
+                .tag("result", "failed")
+                .description("Bulk import lines rejected")
+                .register(meterRegistry);
+        this.batchTimer = Timer.builder("avito.ads.import.batch")
+                .description("Time to insert one bulk import batch")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Импорт объявлений текущего пользователя
+     * @param input NDJSON в UTF-8; пустые строки пропускаются
+     */
+    public ImportReport importAds(InputStream input) throws IOException {
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
+        Report report = new Report();
+        long started = System.nanoTime();
+
+        List<Row> batch = new ArrayList<>(batchSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            long lineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.isBlank()) {
+                    continue;
+                }
+                CreateOrUpdateAdDto dto = parse(line, lineNumber, report);
+                if (dto == null) {
+                    continue;
+                }
+                batch.add(new Row(lineNumber, dto));
+                if (batch.size() == batchSize) {
+                    insertBatch(batch, currentUser.id(), report);
+                    batch.clear();
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            insertBatch(batch, currentUser.id(), report);
+        }
+
+        log.info("Bulk import by {}: {} ads imported, {} lines failed in {} ms", currentUser.email(),
+                report.imported, report.failed, (System.nanoTime() - started) / 1_000_000);
+        return new ImportReport(report.imported, report.failed, report.errors);
+    }
+
+    private CreateOrUpdateAdDto parse(String line, long lineNumber, Report report) {
+        CreateOrUpdateAdDto dto;
+        try {
+            dto = objectMapper.readValue(line, CreateOrUpdateAdDto.class);
+        } catch (JsonProcessingException e) {
+            report.fail(lineNumber, "Некорректный JSON: " + e.getOriginalMessage());
+            return null;
+        }
+
+        Set<ConstraintViolation<CreateOrUpdateAdDto>> violations = validator.validate(dto);
+        if (!violations.isEmpty()) {
+            report.fail(lineNumber, violations.stream()
+                    .map(v -> v.getPropertyPath() + ": " + v.getMessage())
+                    .sorted()
+                    .collect(Collectors.joining("; ")));
+            return null;
+        }
+        return dto;
+    }
+
+    private void insertBatch(List<Row> batch, Integer authorId, Report report) {
+        Timer.Sample sample = Timer.start();
+        try {
+            transactionTemplate.executeWithoutResult(status -> {
+                List<Integer> ids = jdbcTemplate.queryForList(ALLOCATE_IDS, Integer.class, batch.size());
+                OffsetDateTime createdAt = OffsetDateTime.now();
+                Timestamp createdAtValue = Timestamp.from(createdAt.toInstant());
+
+                List<Object[]> args = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    CreateOrUpdateAdDto dto = batch.get(i).dto();
+                    args.add(new Object[]{ids.get(i), dto.getTitle(), dto.getDescription(), dto.getPrice(),
+                            authorId, createdAtValue});
+                }
+                jdbcTemplate.batchUpdate(INSERT_AD, args);
+
+                // Индексы в памяти и кэш ответов обновляются только после коммита пачки
+                List<AdDto> created = new ArrayList<>(batch.size());
+                for (int i = 0; i < batch.size(); i++) {
+                    Ad ad = toAd(ids.get(i), batch.get(i).dto(), authorId, createdAt);
+                    adSearchIndex.indexAfterCommit(ad);
+                    adPriceIndex.putAfterCommit(ad.getId(), ad.getPrice());
+                    created.add(new AdDto(ad.getId(), authorId, null, ad.getPrice(), ad.getTitle(),
+                            ad.getDescription(), 0));
+                }
+                changeOutbox.adsCreated(created);
+                invalidationBus.adsChanged(ids);
+                responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+            });
+            report.imported += batch.size();
+            importedRows.increment(batch.size());
+        } catch (DataAccessException e) {
+            log.warn("Bulk import batch of {} rows failed", batch.size(), e);
+            String message = "Ошибка сохранения пачки: " + e.getMostSpecificCause().getMessage();
+            for (Row row : batch) {
+                report.fail(row.line(), message);
+            }
+        } finally {
+            sample.stop(batchTimer);
+        }
+    }
+
+    private Ad toAd(Integer id, CreateOrUpdateAdDto dto, Integer authorId, OffsetDateTime createdAt) {
+        Ad ad = new Ad();
+        ad.setId(id);
+        ad.setTitle(dto.getTitle());
+        ad.setDescription(dto.getDescription());
+        ad.setPrice(dto.getPrice());
+        ad.setCreatedAt(createdAt);
+        // Прокси без обращения к БД: индексу нужен только id автора
+        ad.setAuthor(userRepository.getReferenceById(authorId));
+        return ad;
+    }
+
+    private record Row(long line, CreateOrUpdateAdDto dto) {
+    }
+
+    // Счетчики одного импорта; список ошибок ограничен, чтобы отчет не рос вместе со входом
+    private class Report {
+        private long imported;
+        private long failed;
+        private final List<ImportError> errors = new ArrayList<>();
+
+        void fail(long line, String message) {
+            failed++;
+            failedRows.increment();
+            if (errors.size() < maxReportedErrors) {
+                errors.add(new ImportError(line, message));
+            }
+        }
+    }
+}
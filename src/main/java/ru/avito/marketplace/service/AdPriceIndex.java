@@ -0,0 +1,319 @@
+package ru.avito.marketplace.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
+import ru.avito.marketplace.repository.projection.AdPriceRow;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Индекс цен объявлений в памяти на примитивных массивах.
+ * Пара (цена, id) упакована в long: старшие 32 бита - цена, младшие - id,
+ * поэтому сортировка long совпадает с сортировкой по (price, id).
+ * Второй массив (id, цена) нужен, чтобы найти старую цену при изменении и удалении.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdPriceIndex {
+
+    private static final int BUILD_BATCH_SIZE = 10_000;
+    private static final long LOW_BITS = 0xFFFF_FFFFL;
+
+    private final AdRepository adRepository;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Защищены lock; заполнены первые size элементов
+    private long[] byPrice = new long[0];
+    private long[] byId = new long[0];
+    private int size;
+    // Изменения во время сборки (id -> цена, null - удаление); применяются поверх нового снимка
+    private Map<Integer, Integer> changedDuringBuild;
+
+    /**
+     * Сборка индекса из БД в новые массивы с заменой готового индекса целиком
+     */
+    @PostConstruct
+    public void build() {
+        long started = System.nanoTime();
+        lock.writeLock().lock();
+        try {
+            changedDuringBuild = new HashMap<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+        try {
+            swap(load());
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changedDuringBuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        log.info("Ad price index built: {} ads in {} ms", size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    private Snapshot load() {
+        long[] prices = new long[BUILD_BATCH_SIZE];
+        long[] ids = new long[BUILD_BATCH_SIZE];
+        int count = 0;
+
+        int lastId = 0;
+        List<AdPriceRow> batch;
+        do {
+            batch = adRepository.findPriceRowsAfter(lastId, PageRequest.of(0, BUILD_BATCH_SIZE));
+            if (count + batch.size() > prices.length) {
+                prices = Arrays.copyOf(prices, Math.max(prices.length * 2, count + batch.size()));
+                ids = Arrays.copyOf(ids, prices.length);
+            }
+            for (AdPriceRow row : batch) {
+                prices[count] = priceKey(row.price(), row.id());
+                ids[count] = idKey(row.id(), row.price());
+                count++;
+                lastId = row.id();
+            }
+        } while (batch.size() == BUILD_BATCH_SIZE);
+
+        Arrays.sort(prices, 0, count);
+        // Строки приходят в порядке id, но сортировка дешева и не полагается на это
+        Arrays.sort(ids, 0, count);
+        return new Snapshot(prices, ids, count);
+    }
+
+    private void swap(Snapshot snapshot) {
+        lock.writeLock().lock();
+        try {
+            byPrice = snapshot.byPrice();
+            byId = snapshot.byId();
+            size = snapshot.size();
+            changedDuringBuild.forEach((adId, price) -> {
+                remove(adId);
+                if (price != null) {
+                    insert(adId, price);
+                }
+            });
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Установка цены объявления после коммита текущей транзакции
+     */
+    public void putAfterCommit(Integer adId, Integer price) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                markChanged(adId, price);
+                remove(adId);
+                insert(adId, price);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Удаление объявления из индекса после коммита текущей транзакции
+     */
+    public void removeAfterCommit(Integer adId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                markChanged(adId, null);
+                remove(adId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Замена цен объявлений строками из БД после изменения на другом узле
+     * @param rows текущие строки; id без строки - удаленные объявления
+     */
+    public void refresh(Collection<Integer> adIds, List<AdFeedRow> rows) {
+        lock.writeLock().lock();
+        try {
+            for (Integer adId : adIds) {
+                markChanged(adId, null);
+                remove(adId);
+            }
+            for (AdFeedRow row : rows) {
+                markChanged(row.id(), row.price());
+                insert(row.id(), row.price());
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Страница объявлений в диапазоне цен, упорядоченная по (price, id)
+     * @param after позиция последнего элемента предыдущей страницы или null
+     * @return упакованные пары (цена, id), не более limit штук
+     */
+    public long[] page(Integer minPrice, Integer maxPrice, PriceCursor after, boolean descending, int limit) {
+        long low = priceKey(minPrice != null ? minPrice : Integer.MIN_VALUE, 0);
+        long high = priceKey(maxPrice != null ? maxPrice : Integer.MAX_VALUE, -1);
+
+        lock.readLock().lock();
+        try {
+            // [from, to) - границы диапазона цен в массиве
+            int from = lowerBound(byPrice, size, low);
+            int to = upperBound(byPrice, size, high);
+            if (after != null) {
+                long cursor = priceKey(after.price(), after.id());
+                if (descending) {
+                    to = Math.min(to, lowerBound(byPrice, size, cursor));
+                } else {
+                    from = Math.max(from, upperBound(byPrice, size, cursor));
+                }
+            }
+
+            int count = Math.max(0, Math.min(limit, to - from));
+            long[] result = new long[count];
+            if (descending) {
+                for (int i = 0; i < count; i++) {
+                    result[i] = byPrice[to - 1 - i];
+                }
+            } else {
+                System.arraycopy(byPrice, from, result, 0, count);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Гистограмма цен: количество объявлений в интервалах [edges[i], edges[i + 1]),
+     * последний интервал открыт сверху
+     */
+    public int[] histogram(int[] edges) {
+        int[] counts = new int[edges.length];
+        lock.readLock().lock();
+        try {
+            int previous = lowerBound(byPrice, size, priceKey(edges[0], 0));
+            for (int i = 0; i < edges.length; i++) {
+                int next = i + 1 < edges.length ? lowerBound(byPrice, size, priceKey(edges[i + 1], 0)) : size;
+                counts[i] = next - previous;
+                previous = next;
+            }
+            return counts;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public static int price(long key) {
+        return (int) (key >> 32);
+    }
+
+    public static int id(long key) {
+        return (int) key;
+    }
+
+    private void markChanged(Integer adId, Integer price) {
+        if (changedDuringBuild != null) {
+            changedDuringBuild.put(adId, price);
+        }
+    }
+
+    private void insert(int adId, int price) {
+        if (size == byPrice.length) {
+            int capacity = Math.max(16, size + (size >> 1));
+            byPrice = Arrays.copyOf(byPrice, capacity);
+            byId = Arrays.copyOf(byId, capacity);
+        }
+        insertSorted(byPrice, priceKey(price, adId));
+        insertSorted(byId, idKey(adId, price));
+        size++;
+    }
+
+    private void remove(int adId) {
+        int position = lowerBound(byId, size, (long) adId << 32);
+        if (position == size || (int) (byId[position] >> 32) != adId) {
+            return;
+        }
+        int price = (int) byId[position];
+        removeAt(byId, position);
+        removeAt(byPrice, Arrays.binarySearch(byPrice, 0, size, priceKey(price, adId)));
+        size--;
+    }
+
+    private void insertSorted(long[] keys, long key) {
+        int position = lowerBound(keys, size, key);
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        keys[position] = key;
+    }
+
+    private void removeAt(long[] keys, int position) {
+        System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+    }
+
+    // Первый индекс с ключом >= key
+    private static int lowerBound(long[] keys, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] < key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    // Первый индекс с ключом > key
+    private static int upperBound(long[] keys, int size, long key) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (keys[mid] <= key) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static long priceKey(int price, int id) {
+        return ((long) price << 32) | (id & LOW_BITS);
+    }
+
+    // Цена хранится в младших 32 битах без знака, при чтении приводится обратно к int
+    private static long idKey(int id, int price) {
+        return ((long) id << 32) | (price & LOW_BITS);
+    }
+
+    private record Snapshot(long[] byPrice, long[] byId, int size) {
+    }
+}
@@ -0,0 +1,466 @@
+package ru.avito.marketplace.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Component;
+import ru.avito.marketplace.dto.AdDto;
+import ru.avito.marketplace.dto.ResponseWrapper;
+import ru.avito.marketplace.entity.Ad;
+import ru.avito.marketplace.mapper.AdMapper;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Поисковый индекс объявлений в памяти: инвертированный индекс по title и description
+ * с ранжированием BM25, поиском по префиксу последнего слова и исправлением одной опечатки.
+ * Строится при старте из таблицы ads и обновляется после коммита изменений объявлений.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AdSearchIndex {
+
+    private static final float K1 = 1.2f;
+    private static final float B = 0.75f;
+
+    // Совпадение в заголовке весит как два совпадения в описании
+    private static final int TITLE_WEIGHT = 2;
+
+    private static final float PREFIX_WEIGHT = 0.8f;
+    private static final float TYPO_WEIGHT = 0.5f;
+    private static final int MIN_TYPO_LENGTH = 4;
+    private static final int MAX_PREFIX_EXPANSIONS = 50;
+
+    private static final int BUILD_BATCH_SIZE = 1000;
+    private static final int MIN_DEAD_SLOTS_TO_COMPACT = 1024;
+
+    private final AdRepository adRepository;
+    private final AdMapper adMapper;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Все поля ниже защищены lock
+    private final List<IndexedAd> slots = new ArrayList<>();
+    private final Map<Integer, Integer> slotsByAdId = new HashMap<>();
+    private final NavigableMap<String, Postings> postings = new TreeMap<>();
+    // Терм без одной буквы -> термы словаря: кандидаты для исправления опечатки
+    private final Map<String, List<String>> deletions = new HashMap<>();
+    private long totalLength;
+    private int deadSlots;
+    // Объявления, измененные во время сборки: пачка, прочитанная из БД раньше изменения, не должна его затереть
+    private Set<Integer> changedDuringBuild;
+
+    /**
+     * Сборка индекса из БД. Повторный вызов сверяет готовый индекс с БД на месте,
+     * поэтому поиск не видит неполных результатов, а изменения во время сборки не теряются.
+     */
+    @PostConstruct
+    public void build() {
+        long started = System.nanoTime();
+        BitSet seen = new BitSet();
+        lock.writeLock().lock();
+        try {
+            changedDuringBuild = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+
+        try {
+            int lastId = 0;
+            List<AdFeedRow> batch;
+            do {
+                batch = adRepository.findSearchRowsAfter(lastId, PageRequest.of(0, BUILD_BATCH_SIZE));
+                lock.writeLock().lock();
+                try {
+                    for (AdFeedRow row : batch) {
+                        seen.set(row.id());
+                        if (!changedDuringBuild.contains(row.id())) {
+                            put(row);
+                        }
+                    }
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                if (!batch.isEmpty()) {
+                    lastId = batch.get(batch.size() - 1).id();
+                }
+            } while (batch.size() == BUILD_BATCH_SIZE);
+
+            lock.writeLock().lock();
+            try {
+                // Объявления индекса, которых не оказалось в БД, удалены, пока индекс не получал изменений
+                for (Integer adId : new ArrayList<>(slotsByAdId.keySet())) {
+                    if (!seen.get(adId) && !changedDuringBuild.contains(adId)) {
+                        remove(adId);
+                    }
+                }
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } finally {
+            lock.writeLock().lock();
+            try {
+                changedDuringBuild = null;
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+
+        log.info("Ad search index built: {} ads, {} terms in {} ms",
+                slotsByAdId.size(), postings.size(), (System.nanoTime() - started) / 1_000_000);
+    }
+
+    /**
+     * Обновление объявления в индексе после коммита текущей транзакции
+     */
+    public void indexAfterCommit(Ad ad) {
+        AdFeedRow row = new AdFeedRow(ad.getId(), ad.getAuthor().getId(), ad.getImage(), ad.getPrice(),
+                ad.getTitle(), ad.getDescription(), ad.getCommentCount(), ad.getCreatedAt());
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                markChanged(row.id());
+                put(row);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Удаление объявления из индекса после коммита текущей транзакции
+     */
+    public void removeAfterCommit(Integer adId) {
+        AfterCommit.run(() -> {
+            lock.writeLock().lock();
+            try {
+                markChanged(adId);
+                remove(adId);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        });
+    }
+
+    /**
+     * Замена объявлений строками из БД после изменения на другом узле
+     * @param rows текущие строки; id без строки - удаленные объявления
+     */
+    public void refresh(Collection<Integer> adIds, List<AdFeedRow> rows) {
+        lock.writeLock().lock();
+        try {
+            for (Integer adId : adIds) {
+                markChanged(adId);
+                remove(adId);
+            }
+            rows.forEach(this::put);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Поиск: каждое слово запроса должно встретиться в объявлении (точно, по префиксу или с опечаткой)
+     * @return найденное количество и лучшие limit объявлений по убыванию релевантности
+     */
+    public ResponseWrapper<AdDto> search(String query, Integer minPrice, Integer maxPrice, int limit) {
+        List<String> tokens = SearchAnalyzer.tokenize(query);
+        if (tokens.isEmpty()) {
+            return new ResponseWrapper<>(0, List.of());
+        }
+
+        lock.readLock().lock();
+        try {
+            int docCount = slotsByAdId.size();
+            if (docCount == 0) {
+                return new ResponseWrapper<>(0, List.of());
+            }
+            float averageLength = (float) totalLength / docCount;
+
+            float[] scores = new float[slots.size()];
+            float[] termScores = new float[slots.size()];
+            // Число слов запроса, уже найденных в документе
+            int[] matched = new int[slots.size()];
+
+            for (int i = 0; i < tokens.size(); i++) {
+                Map<String, Float> expansions = expand(tokens.get(i), i == tokens.size() - 1);
+                if (expansions.isEmpty()) {
+                    return new ResponseWrapper<>(0, List.of());
+                }
+
+                for (Map.Entry<String, Float> expansion : expansions.entrySet()) {
+                    Postings termPostings = postings.get(expansion.getKey());
+                    float idf = (float) Math.log(1 + (docCount - termPostings.live + 0.5) / (termPostings.live + 0.5));
+                    float weight = expansion.getValue() * idf;
+
+                    for (int j = 0; j < termPostings.size; j++) {
+                        int slot = termPostings.docs[j];
+                        if (matched[slot] < i) {
+                            continue;
+                        }
+                        IndexedAd doc = slots.get(slot);
+                        if (doc == null || !priceMatches(doc.ad().getPrice(), minPrice, maxPrice)) {
+                            continue;
+                        }
+
+                        int tf = termPostings.freqs[j];
+                        float score = weight * tf * (K1 + 1)
+                                / (tf + K1 * (1 - B + B * doc.length() / averageLength));
+                        // Для одного слова запроса берется лучшее из его вариантов
+                        if (matched[slot] == i) {
+                            matched[slot] = i + 1;
+                            termScores[slot] = score;
+                            scores[slot] += score;
+                        } else if (score > termScores[slot]) {
+                            scores[slot] += score - termScores[slot];
+                            termScores[slot] = score;
+                        }
+                    }
+                }
+            }
+
+            return topHits(scores, matched, tokens.size(), limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private ResponseWrapper<AdDto> topHits(float[] scores, int[] matched, int required, int limit) {
+        Comparator<Integer> byRelevance = Comparator.<Integer>comparingDouble(slot -> scores[slot])
+                .thenComparingInt(slot -> slots.get(slot).ad().getId());
+        PriorityQueue<Integer> top = new PriorityQueue<>(byRelevance);
+
+        int total = 0;
+        for (int slot = 0; slot < matched.length; slot++) {
+            if (matched[slot] != required) {
+                continue;
+            }
+            total++;
+            top.offer(slot);
+            if (top.size() > limit) {
+                top.poll();
+            }
+        }
+
+        AdDto[] results = new AdDto[top.size()];
+        for (int i = results.length - 1; i >= 0; i--) {
+            results[i] = slots.get(top.poll()).ad();
+        }
+        return new ResponseWrapper<>(total, Arrays.asList(results));
+    }
+
+    /**
+     * Термы словаря для слова запроса с весами: точное совпадение основы,
+     * продолжения префикса (только для последнего слова) и варианты с одной опечаткой
+     */
+    private Map<String, Float> expand(String token, boolean prefix) {
+        Map<String, Float> expansions = new LinkedHashMap<>();
+        String stem = SearchAnalyzer.stem(token);
+        if (isLive(stem)) {
+            expansions.put(stem, 1f);
+        }
+
+        if (prefix) {
+            int added = 0;
+            for (Map.Entry<String, Postings> entry : postings.subMap(token, true, token + Character.MAX_VALUE, false).entrySet()) {
+                if (added >= MAX_PREFIX_EXPANSIONS) {
+                    break;
+                }
+                if (entry.getValue().live > 0 && expansions.putIfAbsent(entry.getKey(), PREFIX_WEIGHT) == null) {
+                    added++;
+                }
+            }
+        }
+
+        if (!expansions.containsKey(stem) && stem.length() >= MIN_TYPO_LENGTH) {
+            for (String candidate : typoCandidates(stem)) {
+                if (isLive(candidate) && withinOneEdit(stem, candidate)) {
+                    expansions.putIfAbsent(candidate, TYPO_WEIGHT);
+                }
+            }
+        }
+        return expansions;
+    }
+
+    // Кандидаты на расстоянии одной правки по соседству удалений (пропуск, лишняя буква, замена, перестановка)
+    private List<String> typoCandidates(String stem) {
+        List<String> candidates = new ArrayList<>(deletions.getOrDefault(stem, List.of()));
+        for (int i = 0; i < stem.length(); i++) {
+            String deletion = stem.substring(0, i) + stem.substring(i + 1);
+            if (postings.containsKey(deletion)) {
+                candidates.add(deletion);
+            }
+            candidates.addAll(deletions.getOrDefault(deletion, List.of()));
+        }
+        return candidates;
+    }
+
+    private static boolean withinOneEdit(String a, String b) {
+        int lengthDiff = a.length() - b.length();
+        if (Math.abs(lengthDiff) > 1) {
+            return false;
+        }
+
+        if (lengthDiff == 0) {
+            int first = -1;
+            int mismatches = 0;
+            for (int i = 0; i < a.length(); i++) {
+                if (a.charAt(i) != b.charAt(i)) {
+                    if (++mismatches == 1) {
+                        first = i;
+                    }
+                }
+            }
+            if (mismatches <= 1) {
+                return true;
+            }
+            // Перестановка соседних букв
+            return mismatches == 2 && first + 1 < a.length()
+                    && a.charAt(first) == b.charAt(first + 1) && a.charAt(first + 1) == b.charAt(first);
+        }
+
+        String longer = lengthDiff > 0 ? a : b;
+        String shorter = lengthDiff > 0 ? b : a;
+        int i = 0;
+        while (i < shorter.length() && longer.charAt(i) == shorter.charAt(i)) {
+            i++;
+        }
+        return longer.substring(i + 1).equals(shorter.substring(i));
+    }
+
+    private static boolean priceMatches(Integer price, Integer minPrice, Integer maxPrice) {
+        return (minPrice == null || price >= minPrice) && (maxPrice == null || price <= maxPrice);
+    }
+
+    private boolean isLive(String term) {
+        Postings termPostings = postings.get(term);
+        return termPostings != null && termPostings.live > 0;
+    }
+
+    private void put(AdFeedRow row) {
+        remove(row.id());
+
+        Map<String, Integer> frequencies = new HashMap<>();
+        int length = 0;
+        for (String token : SearchAnalyzer.tokenize(row.title())) {
+            frequencies.merge(SearchAnalyzer.stem(token), TITLE_WEIGHT, Integer::sum);
+            length += TITLE_WEIGHT;
+        }
+        for (String token : SearchAnalyzer.tokenize(row.description())) {
+            frequencies.merge(SearchAnalyzer.stem(token), 1, Integer::sum);
+            length++;
+        }
+
+        String[] terms = new String[frequencies.size()];
+        int[] freqs = new int[frequencies.size()];
+        int i = 0;
+        for (Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+            terms[i] = entry.getKey();
+            freqs[i] = entry.getValue();
+            i++;
+        }
+        add(new IndexedAd(adMapper.toAdDto(row), terms, freqs, length));
+    }
+
+    private void add(IndexedAd doc) {
+        int slot = slots.size();
+        slots.add(doc);
+        slotsByAdId.put(doc.ad().getId(), slot);
+        totalLength += doc.length();
+        for (int i = 0; i < doc.terms().length; i++) {
+            postingsFor(doc.terms()[i]).add(slot, doc.freqs()[i]);
+        }
+    }
+
+    private void remove(Integer adId) {
+        Integer slot = slotsByAdId.remove(adId);
+        if (slot == null) {
+            return;
+        }
+        IndexedAd doc = slots.set(slot, null);
+        totalLength -= doc.length();
+        for (String term : doc.terms()) {
+            postings.get(term).live--;
+        }
+
+        // Удаленные документы остаются в списках вхождений до пересборки
+        deadSlots++;
+        if (deadSlots >= MIN_DEAD_SLOTS_TO_COMPACT && deadSlots > slotsByAdId.size()) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        List<IndexedAd> live = slots.stream().filter(doc -> doc != null).toList();
+        slots.clear();
+        slotsByAdId.clear();
+        postings.clear();
+        deletions.clear();
+        totalLength = 0;
+        deadSlots = 0;
+        live.forEach(this::add);
+        log.debug("Ad search index compacted: {} ads", live.size());
+    }
+
+    private Postings postingsFor(String term) {
+        Postings termPostings = postings.get(term);
+        if (termPostings == null) {
+            termPostings = new Postings();
+            postings.put(term, termPostings);
+            if (term.length() >= MIN_TYPO_LENGTH) {
+                for (int i = 0; i < term.length(); i++) {
+                    String deletion = term.substring(0, i) + term.substring(i + 1);
+                    deletions.computeIfAbsent(deletion, key -> new ArrayList<>(1)).add(term);
+                }
+            }
+        }
+        return termPostings;
+    }
+
+    private void markChanged(Integer adId) {
+        if (changedDuringBuild != null) {
+            changedDuringBuild.add(adId);
+        }
+    }
+
+    private record IndexedAd(AdDto ad, String[] terms, int[] freqs, int length) {
+    }
+
+    // Список вхождений терма: номера документов и взвешенные частоты
+    private static final class Postings {
+        private int[] docs = new int[4];
+        private int[] freqs = new int[4];
+        private int size;
+        private int live;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size] = freq;
+            size++;
+            live++;
+        }
+    }
+}
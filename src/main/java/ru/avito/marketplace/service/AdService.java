@@ -2,26 +2,43 @@ package ru.avito.marketplace.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
+import ru.avito.marketplace.constants.ApiConstants;
 import ru.avito.marketplace.dto.AdDto;
 import ru.avito.marketplace.dto.CreateOrUpdateAdDto;
 import ru.avito.marketplace.dto.ExtendedAdDto;
+import ru.avito.marketplace.dto.ImageJobDto;
+import ru.avito.marketplace.dto.PriceBucket;
 import ru.avito.marketplace.dto.ResponseWrapper;
 import ru.avito.marketplace.entity.Ad;
-import ru.avito.marketplace.entity.User;
+import ru.avito.marketplace.entity.OutboxEvent;
 import ru.avito.marketplace.exception.AdNotFoundException;
+import ru.avito.marketplace.exception.InvalidSortException;
 import ru.avito.marketplace.mapper.AdMapper;
 import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.CommentRepository;
 import ru.avito.marketplace.repository.UserRepository;
+import ru.avito.marketplace.repository.projection.UserPrincipal;
+import ru.avito.marketplace.repository.projection.AdCommentCountRow;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 @Service
 @Slf4j
@@ -29,28 +46,159 @@ import java.util.List;
 @Transactional(readOnly = true)
 public class AdService {
 
+    private static final String SORT_DATE = "date";
+    private static final String SORT_PRICE = "price";
+    private static final String SORT_PRICE_DESC = "-price";
+
     private final AdRepository adRepository;
+    private final CommentRepository commentRepository;
     private final AdMapper adMapper;
     private final AuthService authService;
     private final ImageService imageService;
     private final UserRepository userRepository; // Добавили
+    private final AuthorizationService authorizationService;
+    private final AdSearchIndex adSearchIndex;
+    private final AdPriceIndex adPriceIndex;
+    private final AdCardCache adCardCache;
+    private final ResponseCache responseCache;
+    private final ImageUploadService imageUploadService;
+    private final ChangeOutbox changeOutbox;
+    private final InvalidationBus invalidationBus;
+
+    @Value("${avito.ads.page-size:20}")
+    private int defaultPageSize;
+
+    @Value("${avito.ads.max-page-size:100}")
+    private int maxPageSize;
+
+    // Границы интервалов гистограммы цен по возрастанию
+    @Value("${avito.ads.price-buckets:0,1000,5000,10000,50000,100000}")
+    private int[] priceBucketEdges;
+
+    // Получение страницы ленты объявлений (публичный доступ)
+    public ResponseWrapper<AdDto> getAllAds(String cursor, Integer size, Integer minPrice, Integer maxPrice,
+                                            String sort, boolean facets) {
+        int pageSize = resolvePageSize(size);
+        ResponseWrapper<AdDto> response = switch (sort == null || sort.isBlank() ? SORT_DATE : sort) {
+            case SORT_DATE -> getFeedPage(cursor, pageSize, minPrice, maxPrice);
+            case SORT_PRICE -> getPricePage(cursor, pageSize, minPrice, maxPrice, false);
+            case SORT_PRICE_DESC -> getPricePage(cursor, pageSize, minPrice, maxPrice, true);
+            default -> throw new InvalidSortException("Недопустимая сортировка: " + sort +
+                    ". Разрешены: " + SORT_DATE + ", " + SORT_PRICE + ", " + SORT_PRICE_DESC);
+        };
+
+        if (facets) {
+            response.setPriceHistogram(priceHistogram());
+        }
+        return response;
+    }
+
+    private ResponseWrapper<AdDto> getFeedPage(String cursor, int pageSize, Integer minPrice, Integer maxPrice) {
+        int min = minPrice != null ? minPrice : Integer.MIN_VALUE;
+        int max = maxPrice != null ? maxPrice : Integer.MAX_VALUE;
+        // Берем на одну запись больше, чтобы понять, есть ли следующая страница
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<AdFeedRow> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = adRepository.findFeedFirstPage(min, max, limit);
+        } else {
+            PageCursor after = PageCursor.decode(cursor);
+            rows = adRepository.findFeedPageAfter(after.createdAt(), after.id(), min, max, limit);
+        }
+
+        return toFeedPage(rows, pageSize);
+    }
 
-    // Получение всех объявлений (публичный доступ)
-    public ResponseWrapper<AdDto> getAllAds() {
-        List<Ad> ads = adRepository.findAllWithAuthor();
-        List<AdDto> adDtos = ads.stream()
+    // rows содержит не больше pageSize + 1 строк; лишняя означает, что есть следующая страница
+    private ResponseWrapper<AdDto> toFeedPage(List<AdFeedRow> rows, int pageSize) {
+        boolean hasNext = rows.size() > pageSize;
+        List<AdFeedRow> page = hasNext ? rows.subList(0, pageSize) : rows;
+        List<AdDto> adDtos = page.stream()
                 .map(adMapper::toAdDto)
                 .toList();
-        return new ResponseWrapper<>(adDtos.size(), adDtos);
+
+        ResponseWrapper<AdDto> response = new ResponseWrapper<>(adDtos.size(), adDtos);
+        if (hasNext) {
+            AdFeedRow last = page.get(page.size() - 1);
+            response.setNext(new PageCursor(last.createdAt(), last.id()).encode());
+        }
+        return response;
+    }
+
+    // Сортировка по цене целиком из индекса цен; из БД догружается только сама страница
+    private ResponseWrapper<AdDto> getPricePage(String cursor, int pageSize, Integer minPrice, Integer maxPrice,
+                                                boolean descending) {
+        PriceCursor after = cursor == null || cursor.isBlank() ? null : PriceCursor.decode(cursor);
+        long[] keys = adPriceIndex.page(minPrice, maxPrice, after, descending, pageSize + 1);
+
+        boolean hasNext = keys.length > pageSize;
+        int count = hasNext ? pageSize : keys.length;
+        List<Integer> ids = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ids.add(AdPriceIndex.id(keys[i]));
+        }
+
+        Map<Integer, AdDto> adsById = ids.isEmpty() ? Map.of() : adRepository.findAllDtoByIdIn(ids).stream()
+                .collect(Collectors.toMap(AdDto::getId, Function.identity()));
+        // Объявление могло быть удалено между чтением индекса и запросом к БД
+        List<AdDto> adDtos = ids.stream()
+                .map(adsById::get)
+                .filter(Objects::nonNull)
+                .toList();
+
+        ResponseWrapper<AdDto> response = new ResponseWrapper<>(adDtos.size(), adDtos);
+        if (hasNext) {
+            long last = keys[count - 1];
+            response.setNext(new PriceCursor(AdPriceIndex.price(last), AdPriceIndex.id(last)).encode());
+        }
+        return response;
+    }
+
+    private List<PriceBucket> priceHistogram() {
+        int[] counts = adPriceIndex.histogram(priceBucketEdges);
+        List<PriceBucket> buckets = new ArrayList<>(counts.length);
+        for (int i = 0; i < counts.length; i++) {
+            Integer to = i + 1 < priceBucketEdges.length ? priceBucketEdges[i + 1] : null;
+            buckets.add(new PriceBucket(priceBucketEdges[i], to, counts[i]));
+        }
+        return buckets;
+    }
+
+    // Полнотекстовый поиск по индексу в памяти (публичный доступ)
+    public ResponseWrapper<AdDto> searchAds(String query, Integer minPrice, Integer maxPrice, Integer size) {
+        ResponseWrapper<AdDto> response = adSearchIndex.search(query, minPrice, maxPrice, resolvePageSize(size));
+        if (response.getResults().isEmpty()) {
+            return response;
+        }
+
+        // Счетчик комментариев меняется без переиндексации, поэтому берется из БД по первичному ключу
+        List<Integer> ids = response.getResults().stream().map(AdDto::getId).toList();
+        Map<Integer, Integer> commentCounts = adRepository.findCommentCountsByIdIn(ids).stream()
+                .collect(Collectors.toMap(AdCommentCountRow::id, AdCommentCountRow::commentCount));
+        // Копии, а не изменение DTO из индекса; удаленные за это время объявления отбрасываются
+        response.setResults(response.getResults().stream()
+                .filter(ad -> commentCounts.containsKey(ad.getId()))
+                .map(ad -> new AdDto(ad.getId(), ad.getAuthorId(), ad.getImage(), ad.getPrice(),
+                        ad.getTitle(), ad.getDescription(), commentCounts.get(ad.getId())))
+                .toList());
+        return response;
+    }
+
+    private int resolvePageSize(Integer size) {
+        if (size == null || size <= 0) {
+            return defaultPageSize;
+        }
+        return Math.min(size, maxPageSize);
     }
 
     // Создание объявления (требует аутентификации)
     @Transactional
     public AdDto createAd(CreateOrUpdateAdDto createAdDto, MultipartFile image) throws IOException {
-        User currentUser = authService.getCurrentUser();
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
 
         Ad ad = adMapper.toEntity(createAdDto);
-        ad.setAuthor(currentUser);
+        ad.setAuthor(userRepository.getReferenceById(currentUser.id()));
 
         // Сохраняем изображение
         if (image != null && !image.isEmpty()) {
@@ -59,43 +207,55 @@ public class AdService {
         }
 
         Ad savedAd = adRepository.save(ad);
-        log.info("Ad created with id: {} by user: {}", savedAd.getId(), currentUser.getEmail());
+        adSearchIndex.indexAfterCommit(savedAd);
+        adPriceIndex.putAfterCommit(savedAd.getId(), savedAd.getPrice());
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+        log.info("Ad created with id: {} by user: {}", savedAd.getId(), currentUser.email());
+
+        AdDto created = adMapper.toAdDto(savedAd);
+        changeOutbox.adChanged(OutboxEvent.Type.CREATED, savedAd.getId(), created);
+        invalidationBus.adChanged(savedAd.getId());
+        return created;
+    }
 
-        return adMapper.toAdDto(savedAd);
+    // Карточка объявления готовым JSON из кэша; без транзакции, чтобы попадание не занимало соединение с БД
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public byte[] getAdJson(Integer id) {
+        return adCardCache.get(id, () -> getAd(id));
     }
 
     // Получение объявления по ID (публичный доступ)
     public ExtendedAdDto getAd(Integer id) {
-        Ad ad = adRepository.findByIdWithAuthor(id)
+        return adRepository.findExtendedDtoById(id)
                 .orElseThrow(() -> new AdNotFoundException("Объявление с id " + id + " не найдено"));
-        return adMapper.toExtendedAdDto(ad);
     }
 
     // Удаление объявления (с проверкой прав)
     @Transactional
     @PreAuthorize("hasRole('ADMIN') or @authorizationService.isAuthor(#id, authentication.name)")
     public void deleteAd(Integer id) throws IOException {
-        Ad ad = adRepository.findById(id)
+        Integer authorId = adRepository.findAuthorIdById(id)
                 .orElseThrow(() -> new AdNotFoundException("Объявление с id " + id + " не найдено"));
 
         // ✅ КРИТЕРИЙ 5: Дополнительная явная проверка (ad.getAuthor().equals(currentUser))
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User currentUser = userRepository.findByEmail(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
 
-        boolean isAuthor = ad.getAuthor().getId().equals(currentUser.getId());
-        boolean isAdmin = "ADMIN".equals(currentUser.getRole());
+        boolean isAuthor = authorId.equals(currentUser.id());
+        boolean isAdmin = currentUser.isAdmin();
 
         if (!isAuthor && !isAdmin) {
             throw new AccessDeniedException("Нет прав для удаления этого объявления");
         }
 
-        // Удаляем изображение если есть
-        if (ad.getImage() != null) {
-            imageService.deleteImage(ad.getImage());
-        }
-
-        adRepository.delete(ad);
+        deleteWithComments(id);
+        adSearchIndex.removeAfterCommit(id);
+        adCardCache.evictAfterCommit(id);
+        adPriceIndex.removeAfterCommit(id);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS, id);
+        changeOutbox.adChanged(OutboxEvent.Type.DELETED, id, null);
+        invalidationBus.adChanged(id);
+        invalidationBus.commentsChanged(id);
         log.info("Ad deleted with id: {}", id);
     }
 
@@ -107,12 +267,10 @@ public class AdService {
                 .orElseThrow(() -> new AdNotFoundException("Объявление с id " + id + " не найдено"));
 
         // ✅ КРИТЕРИЙ 5: Явная проверка (ad.getAuthor().equals(currentUser))
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User currentUser = userRepository.findByEmail(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
 
-        boolean isAuthor = ad.getAuthor().getId().equals(currentUser.getId());
-        boolean isAdmin = "ADMIN".equals(currentUser.getRole());
+        boolean isAuthor = ad.getAuthor().getId().equals(currentUser.id());
+        boolean isAdmin = currentUser.isAdmin();
 
         if (!isAuthor && !isAdmin) {
             throw new AccessDeniedException("Нет прав для редактирования этого объявления");
@@ -120,54 +278,76 @@ public class AdService {
 
         adMapper.updateEntity(updateAdDto, ad);
         Ad updatedAd = adRepository.save(ad);
+        adSearchIndex.indexAfterCommit(updatedAd);
+        adPriceIndex.putAfterCommit(id, updatedAd.getPrice());
+        adCardCache.evictAfterCommit(id);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
 
         log.info("Ad updated with id: {}", id);
-        return adMapper.toAdDto(updatedAd);
+        AdDto updated = adMapper.toAdDto(updatedAd);
+        changeOutbox.adChanged(OutboxEvent.Type.UPDATED, id, updated);
+        invalidationBus.adChanged(id);
+        return updated;
     }
 
-    // Обновление изображения объявления (с проверкой прав)
-    @Transactional
-    public AdDto updateAdImage(Integer id, MultipartFile image) throws IOException {
-        Ad ad = adRepository.findById(id)
+    // Обновление изображения объявления (с проверкой прав): файл принимается сразу, обработка - в фоне
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImageJobDto updateAdImage(Integer id, MultipartFile image) throws IOException {
+        Integer authorId = adRepository.findAuthorIdById(id)
                 .orElseThrow(() -> new AdNotFoundException("Объявление с id " + id + " не найдено"));
 
         // ✅ КРИТЕРИЙ 5: Проверка прав
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User currentUser = userRepository.findByEmail(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
 
-        boolean isAuthor = ad.getAuthor().getId().equals(currentUser.getId());
-        boolean isAdmin = "ADMIN".equals(currentUser.getRole());
+        boolean isAuthor = authorId.equals(currentUser.id());
+        boolean isAdmin = currentUser.isAdmin();
 
         if (!isAuthor && !isAdmin) {
             throw new AccessDeniedException("Нет прав для редактирования этого объявления");
         }
 
+        return imageUploadService.submit(image, ApiConstants.ADS_SUBDIR, "ad",
+                imagePath -> applyAdImage(id, imagePath));
+    }
+
+    // Смена ссылки на уже сохраненное изображение. Вызывается из лямбды мимо прокси, поэтому транзакцию
+    // открывает вызывающий код - ImageService.storeStaged; без нее изменения и сбросы кэшей после коммита потерялись бы
+    private void applyAdImage(Integer id, String imagePath) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("applyAdImage выполняется только в транзакции ImageService.storeStaged");
+        }
+        Ad ad = adRepository.findById(id)
+                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + id + " не найдено"));
+
         // Удаляем старое изображение если есть
         if (ad.getImage() != null) {
-            imageService.deleteImage(ad.getImage());
+            imageService.releaseImage(ad.getImage());
         }
-
-        // Сохраняем новое изображение
-        String imagePath = imageService.saveAdImage(image);
         ad.setImage(imagePath);
 
         Ad updatedAd = adRepository.save(ad);
+        adSearchIndex.indexAfterCommit(updatedAd);
+        adCardCache.evictAfterCommit(id);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+        changeOutbox.adChanged(OutboxEvent.Type.UPDATED, id, adMapper.toAdDto(updatedAd));
+        invalidationBus.adChanged(id);
         log.info("Ad image updated for ad id: {}", id);
-
-        return adMapper.toAdDto(updatedAd);
     }
 
-    // Получение объявлений текущего пользователя
-    public ResponseWrapper<AdDto> getMyAds() {
-        User currentUser = authService.getCurrentUser();
-        List<Ad> ads = adRepository.findAllByAuthor(currentUser);
-
-        List<AdDto> adDtos = ads.stream()
-                .map(adMapper::toAdDto)
-                .toList();
-
-        return new ResponseWrapper<>(adDtos.size(), adDtos);
+    // Страница объявлений текущего пользователя, новые первыми; id автора берется из кэша принципалов
+    public ResponseWrapper<AdDto> getMyAds(String cursor, Integer size) {
+        Integer authorId = authService.getCurrentPrincipal().id();
+        int pageSize = resolvePageSize(size);
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<AdFeedRow> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = adRepository.findAuthorFirstPage(authorId, limit);
+        } else {
+            PageCursor after = PageCursor.decode(cursor);
+            rows = adRepository.findAuthorPageAfter(authorId, after.createdAt(), after.id(), limit);
+        }
+        return toFeedPage(rows, pageSize);
     }
 
     // ✅ КРИТЕРИЙ 7: Проверка роли ADMIN
@@ -179,17 +359,13 @@ public class AdService {
 
     // ✅ Метод для SpEL выражения в @PreAuthorize
     public boolean isAuthor(Integer adId, String username) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
-        return ad.getAuthor().getEmail().equals(username);
+        return authorizationService.isAuthor(adId, username);
     }
 
     // Метод для проверки без @PreAuthorize
     public boolean isAuthor(Integer adId) {
-        User currentUser = authService.getCurrentUser();
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
-        return ad.getAuthor().getId().equals(currentUser.getId());
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
+        return authorizationService.isAuthor(adId, currentUser.email());
     }
 
     public boolean existsById(Integer id) {
@@ -200,11 +376,34 @@ public class AdService {
     @PreAuthorize("hasRole('ADMIN')")
     @Transactional
     public void deleteAdAsAdmin(Integer id) {
-        if (!adRepository.existsById(id)) {
+        deleteWithComments(id);
+        adSearchIndex.removeAfterCommit(id);
+        adCardCache.evictAfterCommit(id);
+        adPriceIndex.removeAfterCommit(id);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS, id);
+        changeOutbox.adChanged(OutboxEvent.Type.DELETED, id, null);
+        invalidationBus.adChanged(id);
+        invalidationBus.commentsChanged(id);
+        log.info("Ad {} deleted by ADMIN", id);
+    }
+
+    /**
+     * Удаление объявления и его комментариев двумя запросами независимо от числа комментариев
+     * (каскад JPA загружал бы и удалял каждый комментарий по одному).
+     * Изображение освобождается после коммита
+     */
+    private void deleteWithComments(Integer id) {
+        commentRepository.deleteAllByAdId(id);
+        List<String> deleted = adRepository.deleteReturningImage(id);
+        if (deleted.isEmpty()) {
             throw new AdNotFoundException("Объявление с id " + id + " не найдено");
         }
-        adRepository.deleteById(id);
-        log.info("Ad {} deleted by ADMIN", id);
+
+        String image = deleted.get(0);
+        if (image != null) {
+            imageService.releaseImage(image);
+        }
     }
 
     // ✅ КРИТЕРИЙ 7: Метод, доступный только ADMIN
@@ -216,8 +415,15 @@ public class AdService {
 
         adMapper.updateEntity(updateAdDto, ad);
         Ad updatedAd = adRepository.save(ad);
+        adSearchIndex.indexAfterCommit(updatedAd);
+        adPriceIndex.putAfterCommit(id, updatedAd.getPrice());
+        adCardCache.evictAfterCommit(id);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
 
         log.info("Ad {} updated by ADMIN", id);
-        return adMapper.toAdDto(updatedAd);
+        AdDto updated = adMapper.toAdDto(updatedAd);
+        changeOutbox.adChanged(OutboxEvent.Type.UPDATED, id, updated);
+        invalidationBus.adChanged(id);
+        return updated;
     }
 }
\ No newline at end of file
@@ -0,0 +1,28 @@
+package ru.avito.marketplace.service;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Выполнение действия после коммита текущей транзакции: при откате оно не выполняется,
+ * вне транзакции выполняется сразу.
+ */
+final class AfterCommit {
+
+    private AfterCommit() {
+        // Утилитный класс
+    }
+
+    static void run(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
+}
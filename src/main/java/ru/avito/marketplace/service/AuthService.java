@@ -16,6 +16,7 @@ import ru.avito.marketplace.entity.User;
 import ru.avito.marketplace.exception.UserAlreadyExistsException;
 import ru.avito.marketplace.mapper.UserMapper;
 import ru.avito.marketplace.repository.UserRepository;
+import ru.avito.marketplace.repository.projection.UserPrincipal;
 
 @Service
 @Slf4j
@@ -26,6 +27,9 @@ public class AuthService {
     private final UserRepository userRepository;
     private final PasswordEncoder passwordEncoder;
     private final UserMapper userMapper;
+    private final PrincipalCache principalCache;
+    private final CredentialCache credentialCache;
+    private final InvalidationBus invalidationBus;
 
     /**
      * Регистрация нового пользователя
@@ -85,6 +89,9 @@ public class AuthService {
         user.setPassword(encodedNewPassword);
 
         userRepository.save(user);
+        principalCache.evictAfterCommit(username);
+        credentialCache.evictAfterCommit(username);
+        invalidationBus.userChanged(user.getId(), username);
         log.info("Пароль успешно изменен для пользователя: {}", username);
     }
 
@@ -92,13 +99,11 @@ public class AuthService {
      * Получение информации о текущем пользователе (DTO)
      */
     public UserDto getCurrentUserInfo(String username) {
-        User user = userRepository.findByEmail(username)
+        return userRepository.findDtoByEmail(username)
                 .orElseThrow(() -> {
                     log.warn("Пользователь не найден: {}", username);
                     return new UsernameNotFoundException("Пользователь не найден");
                 });
-
-        return userMapper.toDto(user);
     }
 
     /**
@@ -126,15 +131,32 @@ public class AuthService {
                 });
     }
 
+    /**
+     * Получение id и роли текущего пользователя из кэша
+     * Используется для проверок прав вместо загрузки сущности
+     * @return Сведения о текущем пользователе
+     * @throws UsernameNotFoundException если пользователь не аутентифицирован или не найден
+     */
+    public UserPrincipal getCurrentPrincipal() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+
+        if (authentication == null || !authentication.isAuthenticated()) {
+            log.warn("Попытка доступа неаутентифицированного пользователя");
+            throw new UsernameNotFoundException("Пользователь не аутентифицирован");
+        }
+
+        return principalCache.get(authentication.getName());
+    }
+
     /**
      * Проверка, является ли текущий пользователь администратором
      * ✅ КРИТЕРИЙ 7: Проверка роли ADMIN
      * @return true если пользователь ADMIN
      */
     public boolean isAdmin() {
-        User currentUser = getCurrentUser();
-        boolean isAdmin = "ADMIN".equals(currentUser.getRole());
-        log.debug("Проверка роли ADMIN для {}: {}", currentUser.getEmail(), isAdmin);
+        UserPrincipal currentUser = getCurrentPrincipal();
+        boolean isAdmin = currentUser.isAdmin();
+        log.debug("Проверка роли ADMIN для {}: {}", currentUser.email(), isAdmin);
         return isAdmin;
     }
 
@@ -187,6 +209,10 @@ public class AuthService {
     @Transactional
     public void updateUser(User user) {
         userRepository.save(user);
+        // Могла измениться роль
+        principalCache.evictAfterCommit(user.getEmail());
+        credentialCache.evictAfterCommit(user.getEmail());
+        invalidationBus.userChanged(user.getId(), user.getEmail());
         log.info("Пользователь обновлен: {}", user.getEmail());
     }
 }
\ No newline at end of file
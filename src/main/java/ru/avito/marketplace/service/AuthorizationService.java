@@ -6,35 +6,42 @@ import org.springframework.security.core.Authentication;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Component;
-import ru.avito.marketplace.entity.Ad;
-import ru.avito.marketplace.entity.Comment;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
 import ru.avito.marketplace.entity.User;
 import ru.avito.marketplace.exception.AdNotFoundException;
 import ru.avito.marketplace.exception.CommentNotFoundException;
 import ru.avito.marketplace.repository.AdRepository;
 import ru.avito.marketplace.repository.CommentRepository;
-import ru.avito.marketplace.repository.UserRepository;
 
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Supplier;
 
 @Component("authorizationService")
 @Slf4j
 @RequiredArgsConstructor
 public class AuthorizationService {
 
+    private static final String REQUEST_ATTRIBUTE = AuthorizationService.class.getName() + ".decisions";
+
     private final AuthService authService;
     private final AdRepository adRepository;
     private final CommentRepository commentRepository;
-    private final UserRepository userRepository;
+    private final PrincipalCache principalCache;
 
     /**
      * ✅ Для использования в @PreAuthorize SpEL выражении
      * Проверяет, является ли текущий пользователь автором объявления
      */
     public boolean isAuthor(Integer adId, String username) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
-        return ad.getAuthor().getEmail().equals(username);
+        return decide("ad:" + adId + ":" + username, () -> {
+            // Один запрос за id автора, объявление целиком не загружается
+            Integer authorId = adRepository.findAuthorIdById(adId)
+                    .orElseThrow(() -> new AdNotFoundException("Объявление не найдено"));
+            return authorId.equals(principalCache.get(username).id());
+        });
     }
 
     /**
@@ -43,9 +50,11 @@ public class AuthorizationService {
      * КРИТЕРИЙ 6: (comment.getUser().equals(currentUser))
      */
     public boolean isCommentAuthor(Integer commentId, String username) {
-        Comment comment = commentRepository.findById(commentId)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий не найден"));
-        return comment.getAuthor().getEmail().equals(username);
+        return decide("comment:" + commentId + ":" + username, () -> {
+            Integer authorId = commentRepository.findAuthorIdById(commentId)
+                    .orElseThrow(() -> new CommentNotFoundException("Комментарий не найден"));
+            return authorId.equals(principalCache.get(username).id());
+        });
     }
 
     /**
@@ -67,9 +76,7 @@ public class AuthorizationService {
      * ✅ Альтернативная проверка ADMIN через роль пользователя в БД
      */
     public boolean isAdmin(String username) {
-        User user = userRepository.findByEmail(username)
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-        return "ADMIN".equals(user.getRole());
+        return principalCache.get(username).isAdmin();
     }
 
     /**
@@ -162,4 +169,30 @@ public class AuthorizationService {
 
         return isAdmin || isCommentAuthor;
     }
+
+    /**
+     * Решения о правах запоминаются на время HTTP-запроса:
+     * проверка в @PreAuthorize и повторная проверка в сервисе не ходят в БД дважды
+     */
+    @SuppressWarnings("unchecked")
+    private boolean decide(String key, Supplier<Boolean> check) {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return check.get();
+        }
+
+        Map<String, Boolean> decisions = (Map<String, Boolean>)
+                attributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (decisions == null) {
+            decisions = new HashMap<>();
+            attributes.setAttribute(REQUEST_ATTRIBUTE, decisions, RequestAttributes.SCOPE_REQUEST);
+        }
+
+        Boolean decision = decisions.get(key);
+        if (decision == null) {
+            decision = check.get();
+            decisions.put(key, decision);
+        }
+        return decision;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,79 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import ru.avito.marketplace.dto.AdDto;
+import ru.avito.marketplace.dto.CommentDto;
+import ru.avito.marketplace.entity.OutboxEvent;
+
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Запись событий изменения в таблицу outbox в транзакции самого изменения:
+ * событие публикуется тогда и только тогда, когда изменение закоммичено.
+ */
+@Component
+@RequiredArgsConstructor
+public class ChangeOutbox {
+
+    private static final String INSERT_EVENT = "INSERT INTO outbox_events " +
+            "(aggregate, aggregate_id, ad_id, type, payload, created_at) VALUES (?, ?, ?, ?, ?, ?)";
+
+    private final JdbcTemplate jdbcTemplate;
+    private final ObjectMapper objectMapper;
+    private final OutboxRelay outboxRelay;
+
+    /**
+     * @param ad состояние после изменения; null для удаления
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void adChanged(OutboxEvent.Type type, Integer adId, AdDto ad) {
+        jdbcTemplate.update(INSERT_EVENT, row(OutboxEvent.Aggregate.AD, adId, adId, type, ad));
+        outboxRelay.wakeUpAfterCommit();
+    }
+
+    /**
+     * @param comment состояние после изменения; null для удаления
+     */
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void commentChanged(OutboxEvent.Type type, Integer adId, Integer commentId, CommentDto comment) {
+        jdbcTemplate.update(INSERT_EVENT, row(OutboxEvent.Aggregate.COMMENT, commentId, adId, type, comment));
+        outboxRelay.wakeUpAfterCommit();
+    }
+
+    // Пакетная запись для импорта: один batchUpdate на пачку объявлений
+    @Transactional(propagation = Propagation.MANDATORY)
+    public void adsCreated(List<AdDto> ads) {
+        List<Object[]> rows = new ArrayList<>(ads.size());
+        for (AdDto ad : ads) {
+            rows.add(row(OutboxEvent.Aggregate.AD, ad.getId(), ad.getId(), OutboxEvent.Type.CREATED, ad));
+        }
+        jdbcTemplate.batchUpdate(INSERT_EVENT, rows);
+        outboxRelay.wakeUpAfterCommit();
+    }
+
+    private Object[] row(OutboxEvent.Aggregate aggregate, Integer aggregateId, Integer adId,
+                         OutboxEvent.Type type, Object payload) {
+        return new Object[]{aggregate.name(), aggregateId, adId, type.name(), toJson(payload),
+                Timestamp.from(Instant.now())};
+    }
+
+    private String toJson(Object payload) {
+        if (payload == null) {
+            return null;
+        }
+        try {
+            return objectMapper.writeValueAsString(payload);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать событие изменения", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package ru.avito.marketplace.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.avito.marketplace.repository.AdRepository;
+
+/**
+ * Сверка ads.comment_count с таблицей комментариев при запуске.
+ * Схему создает Hibernate (ddl-auto), поэтому заполнение счетчика из changelog 005 не выполняется:
+ * без сверки у существующих объявлений счетчик остается нулевым.
+ * Выполняется до старта веб-сервера, поэтому кэши не успевают запомнить старые значения
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "avito.comments.reconcile-counts", havingValue = "true", matchIfMissing = true)
+public class CommentCountReconciler {
+
+    private final AdRepository adRepository;
+    private final TransactionTemplate transactionTemplate;
+
+    @PostConstruct
+    public void reconcile() {
+        long started = System.nanoTime();
+        Integer updated = transactionTemplate.execute(status -> adRepository.reconcileCommentCounts());
+        log.info("Comment counters reconciled: {} ads updated in {} ms",
+                updated, (System.nanoTime() - started) / 1_000_000);
+    }
+}
@@ -2,24 +2,27 @@ package ru.avito.marketplace.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
 import org.springframework.security.access.AccessDeniedException;
 import org.springframework.security.access.prepost.PreAuthorize;
-import org.springframework.security.core.Authentication;
-import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 import ru.avito.marketplace.dto.CommentDto;
 import ru.avito.marketplace.dto.CreateOrUpdateCommentDto;
 import ru.avito.marketplace.dto.ResponseWrapper;
-import ru.avito.marketplace.entity.Ad;
 import ru.avito.marketplace.entity.Comment;
-import ru.avito.marketplace.entity.User;
+import ru.avito.marketplace.entity.OutboxEvent;
 import ru.avito.marketplace.exception.AdNotFoundException;
 import ru.avito.marketplace.exception.CommentNotFoundException;
 import ru.avito.marketplace.mapper.CommentMapper;
 import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.CommentMutationResult;
 import ru.avito.marketplace.repository.CommentRepository;
 import ru.avito.marketplace.repository.UserRepository;
+import ru.avito.marketplace.repository.projection.UserPrincipal;
 
 import java.time.LocalDateTime;
 import java.util.List;
@@ -36,78 +39,105 @@ public class CommentService {
     private final AuthService authService;
     private final UserRepository userRepository; // Добавим для явных проверок
     private final AuthorizationService authorizationService; // Используем ваш сервис
+    private final ResponseCache responseCache;
+    private final ChangeOutbox changeOutbox;
+    private final InvalidationBus invalidationBus;
+    private final CommentStreamHub commentStreamHub;
 
-    public ResponseWrapper<CommentDto> getComments(Integer adId) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
+    @Value("${avito.comments.page-size:20}")
+    private int defaultPageSize;
 
-        List<Comment> comments = commentRepository.findAllByAdWithAuthor(ad);
-        List<CommentDto> commentDtos = comments.stream()
-                .map(commentMapper::toDto)
-                .toList();
+    @Value("${avito.comments.max-page-size:100}")
+    private int maxPageSize;
 
-        return new ResponseWrapper<>(commentDtos.size(), commentDtos);
+    // Страница комментариев объявления, новые первыми (публичный доступ)
+    public ResponseWrapper<CommentDto> getComments(Integer adId, String cursor, Integer size) {
+        if (!adRepository.existsById(adId)) {
+            throw new AdNotFoundException("Объявление с id " + adId + " не найдено");
+        }
+
+        int pageSize = size == null || size <= 0 ? defaultPageSize : Math.min(size, maxPageSize);
+        // Берем на одну запись больше, чтобы понять, есть ли следующая страница
+        PageRequest limit = PageRequest.of(0, pageSize + 1);
+
+        List<CommentDto> rows;
+        if (cursor == null || cursor.isBlank()) {
+            rows = commentRepository.findDtoFirstPageByAdId(adId, limit);
+        } else {
+            PageCursor after = PageCursor.decode(cursor);
+            rows = commentRepository.findDtoPageByAdIdAfter(adId, after.createdAt(), after.id(), limit);
+        }
+
+        boolean hasNext = rows.size() > pageSize;
+        List<CommentDto> page = hasNext ? rows.subList(0, pageSize) : rows;
+
+        ResponseWrapper<CommentDto> response = new ResponseWrapper<>(page.size(), page);
+        if (hasNext) {
+            CommentDto last = page.get(page.size() - 1);
+            response.setNext(new PageCursor(last.getCreatedAt(), last.getId()).encode());
+        }
+        return response;
+    }
+
+    // Подписка на изменения комментариев объявления вместо периодического перечитывания страницы
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public SseEmitter subscribe(Integer adId, String client) {
+        if (!adRepository.existsById(adId)) {
+            throw new AdNotFoundException("Объявление с id " + adId + " не найдено");
+        }
+        return commentStreamHub.subscribe(adId, client);
     }
 
     @Transactional
     public CommentDto addComment(Integer adId, CreateOrUpdateCommentDto commentDto) {
-        User currentUser = authService.getCurrentUser();
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
+        // Увеличение счетчика заодно проверяет, что объявление существует, - без его загрузки
+        if (adRepository.adjustCommentCount(adId, 1) == 0) {
+            throw new AdNotFoundException("Объявление с id " + adId + " не найдено");
+        }
 
         Comment comment = commentMapper.toEntity(commentDto);
-        comment.setAuthor(currentUser);
-        comment.setAd(ad);
-
+        comment.setAuthor(userRepository.getReferenceById(currentUser.id()));
+        comment.setAd(adRepository.getReferenceById(adId));
 
         Comment savedComment = commentRepository.save(comment);
-        log.info("Comment added to ad id: {} by user: {}", adId, currentUser.getEmail());
+        commentsChangedAfterCommit(adId);
+        log.info("Comment added to ad id: {} by user: {}", adId, currentUser.email());
 
-        return commentMapper.toDto(savedComment);
+        CommentDto created = commentMapper.toDto(savedComment);
+        changeOutbox.commentChanged(OutboxEvent.Type.CREATED, adId, savedComment.getId(), created);
+        invalidationBus.commentsChanged(adId);
+        return created;
     }
 
     @Transactional
     @PreAuthorize("hasRole('ADMIN') or @authorizationService.isCommentAuthor(#commentId, authentication.name)")
     public void deleteComment(Integer adId, Integer commentId) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
-
-        Comment comment = commentRepository.findByIdAndAd(commentId, ad)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий с id " + commentId + " не найден"));
-
-        // ✅ КРИТЕРИЙ 6: Явная проверка (comment.getAuthor().equals(currentUser))
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User currentUser = userRepository.findByEmail(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
-
-        boolean isAuthor = comment.getAuthor().getId().equals(currentUser.getId());
-        boolean isAdmin = "ADMIN".equals(currentUser.getRole());
+        // ✅ КРИТЕРИЙ 6: Явная проверка (comment.getAuthor().equals(currentUser)) - условие самого DELETE
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
 
-        if (!isAuthor && !isAdmin) {
-            // ✅ КРИТЕРИЙ 14: AccessDeniedException для 403
-            throw new AccessDeniedException("Нет прав для удаления этого комментария");
-        }
+        CommentMutationResult result = commentRepository.deleteIfPermitted(
+                adId, commentId, currentUser.id(), currentUser.isAdmin());
+        // ✅ КРИТЕРИЙ 14: AccessDeniedException для 403
+        checkMutation(result, adId, commentId, "Нет прав для удаления этого комментария");
 
-        commentRepository.delete(comment);
+        commentsChangedAfterCommit(adId);
+        changeOutbox.commentChanged(OutboxEvent.Type.DELETED, adId, commentId, null);
+        invalidationBus.commentsChanged(adId);
         log.info("Comment deleted with id: {} from ad id: {}", commentId, adId);
     }
 
     @Transactional
     @PreAuthorize("hasRole('ADMIN') or @authorizationService.isCommentAuthor(#commentId, authentication.name)")
     public CommentDto updateComment(Integer adId, Integer commentId, CreateOrUpdateCommentDto commentDto) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
-
-        Comment comment = commentRepository.findByIdAndAd(commentId, ad)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий с id " + commentId + " не найден"));
+        Comment comment = commentRepository.findByIdAndAdId(commentId, adId)
+                .orElseThrow(() -> notFound(adId, commentId));
 
         // ✅ КРИТЕРИЙ 6: Явная проверка (comment.getAuthor().equals(currentUser))
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User currentUser = userRepository.findByEmail(authentication.getName())
-                .orElseThrow(() -> new RuntimeException("Пользователь не найден"));
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
 
-        boolean isAuthor = comment.getAuthor().getId().equals(currentUser.getId());
-        boolean isAdmin = "ADMIN".equals(currentUser.getRole());
+        boolean isAuthor = comment.getAuthor().getId().equals(currentUser.id());
+        boolean isAdmin = currentUser.isAdmin();
 
         if (!isAuthor && !isAdmin) {
             // ✅ КРИТЕРИЙ 14: AccessDeniedException для 403
@@ -117,21 +147,25 @@ public class CommentService {
         commentMapper.updateEntity(commentDto, comment);
         Comment updatedComment = commentRepository.save(comment);
 
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS, adId);
         log.info("Comment updated with id: {}", commentId);
-        return commentMapper.toDto(updatedComment);
+        CommentDto updated = commentMapper.toDto(updatedComment);
+        changeOutbox.commentChanged(OutboxEvent.Type.UPDATED, adId, commentId, updated);
+        invalidationBus.commentsChanged(adId);
+        return updated;
     }
 
     // ✅ КРИТЕРИЙ 7: Метод, доступный только ADMIN
     @PreAuthorize("hasRole('ADMIN')")
     @Transactional
     public void deleteCommentAsAdmin(Integer adId, Integer commentId) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
+        CommentMutationResult result = commentRepository.deleteIfPermitted(adId, commentId, currentUser.id(), true);
+        checkMutation(result, adId, commentId, "Нет прав для удаления этого комментария");
 
-        Comment comment = commentRepository.findByIdAndAd(commentId, ad)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий с id " + commentId + " не найден"));
-
-        commentRepository.delete(comment);
+        commentsChangedAfterCommit(adId);
+        changeOutbox.commentChanged(OutboxEvent.Type.DELETED, adId, commentId, null);
+        invalidationBus.commentsChanged(adId);
         log.info("Comment {} deleted by ADMIN for ad {}", commentId, adId);
     }
 
@@ -139,42 +173,58 @@ public class CommentService {
     @PreAuthorize("hasRole('ADMIN')")
     @Transactional
     public CommentDto updateCommentAsAdmin(Integer adId, Integer commentId, CreateOrUpdateCommentDto commentDto) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
-
-        Comment comment = commentRepository.findByIdAndAd(commentId, ad)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий с id " + commentId + " не найден"));
+        Comment comment = commentRepository.findByIdAndAdId(commentId, adId)
+                .orElseThrow(() -> notFound(adId, commentId));
 
         commentMapper.updateEntity(commentDto, comment);
         Comment updatedComment = commentRepository.save(comment);
 
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS, adId);
         log.info("Comment {} updated by ADMIN for ad {}", commentId, adId);
-        return commentMapper.toDto(updatedComment);
+        CommentDto updated = commentMapper.toDto(updatedComment);
+        changeOutbox.commentChanged(OutboxEvent.Type.UPDATED, adId, commentId, updated);
+        invalidationBus.commentsChanged(adId);
+        return updated;
+    }
+
+    private void checkMutation(CommentMutationResult result, Integer adId, Integer commentId, String forbiddenMessage) {
+        switch (result) {
+            case DONE -> {
+            }
+            case AD_NOT_FOUND -> throw new AdNotFoundException("Объявление с id " + adId + " не найдено");
+            case COMMENT_NOT_FOUND -> throw new CommentNotFoundException("Комментарий с id " + commentId + " не найден");
+            case FORBIDDEN -> throw new AccessDeniedException(forbiddenMessage);
+        }
+    }
+
+    // Объявление проверяется вторым запросом только на пути ошибки, когда комментарий не найден
+    private RuntimeException notFound(Integer adId, Integer commentId) {
+        if (!adRepository.existsById(adId)) {
+            return new AdNotFoundException("Объявление с id " + adId + " не найдено");
+        }
+        return new CommentNotFoundException("Комментарий с id " + commentId + " не найден");
+    }
+
+    // Количество комментариев входит в ленту объявлений: сбрасываются комментарии объявления и страницы ленты с ним
+    private void commentsChangedAfterCommit(Integer adId) {
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS, adId);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS, adId);
     }
 
     // Метод для SpEL выражения в @PreAuthorize
     public boolean isAuthor(Integer commentId, String username) {
-        Comment comment = commentRepository.findById(commentId)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий не найден"));
-        return comment.getAuthor().getEmail().equals(username);
+        return authorizationService.isCommentAuthor(commentId, username);
     }
 
     // Метод для проверки без @PreAuthorize
     public boolean isAuthor(Integer commentId) {
-        User currentUser = authService.getCurrentUser();
-        Comment comment = commentRepository.findById(commentId)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий не найден"));
-        return comment.getAuthor().getId().equals(currentUser.getId());
+        UserPrincipal currentUser = authService.getCurrentPrincipal();
+        return authorizationService.isCommentAuthor(commentId, currentUser.email());
     }
 
     // Получение конкретного комментария (публичный доступ)
     public CommentDto getComment(Integer adId, Integer commentId) {
-        Ad ad = adRepository.findById(adId)
-                .orElseThrow(() -> new AdNotFoundException("Объявление с id " + adId + " не найдено"));
-
-        Comment comment = commentRepository.findByIdAndAd(commentId, ad)
-                .orElseThrow(() -> new CommentNotFoundException("Комментарий с id " + commentId + " не найден"));
-
-        return commentMapper.toDto(comment);
+        return commentRepository.findDtoByIdAndAdId(commentId, adId)
+                .orElseThrow(() -> notFound(adId, commentId));
     }
 }
\ No newline at end of file
@@ -0,0 +1,309 @@
+package ru.avito.marketplace.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.avito.marketplace.dto.ChangeEventDto;
+import ru.avito.marketplace.entity.OutboxEvent;
+import ru.avito.marketplace.exception.TooManySubscribersException;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Рассылка изменений комментариев подписчикам объявления (SSE).
+ * События приходят из outbox, поэтому подписчик видит изменения, сделанные на любом узле.
+ * Публикация не блокируется: событие кладется в ограниченный буфер подписчика,
+ * а запись в соединение выполняет отдельный пул. Подписчик с переполненным буфером отключается -
+ * клиент переподключается и перечитывает первую страницу комментариев.
+ * Запись, зависшая дольше write-timeout, снимает подписчика сразу (место освобождается),
+ * а соединение закрывает сам пишущий поток, когда Tomcat прервет запись по таймауту сокета.
+ * Число подписок с одного адреса ограничено, чтобы один клиент не занял все места узла.
+ */
+@Slf4j
+@Component
+public class CommentStreamHub {
+
+    // Маркер проверки соединения в буфере подписчика
+    private static final ChangeEventDto HEARTBEAT = new ChangeEventDto();
+
+    private final OutboxRelay outboxRelay;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final ThreadPoolTaskExecutor writer;
+    private final int maxSubscribers;
+    private final int maxSubscribersPerClient;
+    private final int bufferSize;
+    private final Duration timeout;
+    private final Duration heartbeat;
+    private final Duration writeTimeout;
+    private final Counter evictedSubscribers;
+
+    private final ConcurrentMap<Integer, Set<Subscriber>> subscribers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Integer> clientSubscriptions = new ConcurrentHashMap<>();
+    private final AtomicInteger count = new AtomicInteger();
+
+    public CommentStreamHub(OutboxRelay outboxRelay,
+                            @Qualifier("commentStreamScheduler") ThreadPoolTaskScheduler scheduler,
+                            @Qualifier("commentStreamWriter") ThreadPoolTaskExecutor writer,
+                            MeterRegistry meterRegistry,
+                            @Value("${avito.comments.stream.max-subscribers:10000}") int maxSubscribers,
+                            @Value("${avito.comments.stream.max-subscribers-per-client:4}") int maxSubscribersPerClient,
+                            @Value("${avito.comments.stream.buffer-size:64}") int bufferSize,
+                            @Value("${avito.comments.stream.timeout:30m}") Duration timeout,
+                            @Value("${avito.comments.stream.heartbeat:15s}") Duration heartbeat,
+                            @Value("${avito.comments.stream.write-timeout:10s}") Duration writeTimeout) {
+        this.outboxRelay = outboxRelay;
+        this.scheduler = scheduler;
+        this.writer = writer;
+        this.maxSubscribers = maxSubscribers;
+        this.maxSubscribersPerClient = maxSubscribersPerClient;
+        this.bufferSize = bufferSize;
+        this.timeout = timeout;
+        this.heartbeat = heartbeat;
+        this.writeTimeout = writeTimeout;
+
+        this.evictedSubscribers = Counter.builder("avito.comments.stream.evicted")
+                .description("Comment stream subscribers dropped because their buffer overflowed or a write stalled")
+                .register(meterRegistry);
+        Gauge.builder("avito.comments.stream.subscribers", count, AtomicInteger::get)
+                .description("Open comment stream subscriptions")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        outboxRelay.addListener(this::onEvents);
+        scheduler.scheduleWithFixedDelay(this::heartbeat, heartbeat);
+        scheduler.scheduleWithFixedDelay(this::evictStalledWriters, writeTimeout.dividedBy(2));
+    }
+
+    /**
+     * Подписка на изменения комментариев объявления
+     * @param client адрес клиента для ограничения числа его подписок
+     * @throws TooManySubscribersException если достигнут предел подписок узла или клиента
+     */
+    public SseEmitter subscribe(Integer adId, String client) {
+        if (!acquireClientSlot(client)) {
+            throw new TooManySubscribersException("Слишком много подписок на комментарии с этого адреса");
+        }
+        if (count.incrementAndGet() > maxSubscribers) {
+            count.decrementAndGet();
+            releaseClientSlot(client);
+            throw new TooManySubscribersException("Слишком много подписок на комментарии, повторите позже");
+        }
+        SseEmitter emitter = new SseEmitter(timeout.toMillis());
+        Subscriber subscriber = new Subscriber(adId, client, emitter);
+        emitter.onCompletion(subscriber::close);
+        emitter.onTimeout(subscriber::close);
+        emitter.onError(e -> subscriber.close());
+        // compute, а не computeIfAbsent: набор мог быть удален закрытием последнего подписчика
+        subscribers.compute(adId, (id, adSubscribers) -> {
+            Set<Subscriber> result = adSubscribers != null ? adSubscribers : ConcurrentHashMap.newKeySet();
+            result.add(subscriber);
+            return result;
+        });
+        return emitter;
+    }
+
+    // Вызывается из доставки outbox: только раскладывает события по буферам
+    private void onEvents(List<ChangeEventDto> events) {
+        for (ChangeEventDto event : events) {
+            boolean comment = event.getAggregate() == OutboxEvent.Aggregate.COMMENT;
+            boolean adDeleted = event.getAggregate() == OutboxEvent.Aggregate.AD
+                    && event.getType() == OutboxEvent.Type.DELETED;
+            if (!comment && !adDeleted) {
+                continue;
+            }
+            Set<Subscriber> adSubscribers = subscribers.get(event.getAdId());
+            if (adSubscribers != null) {
+                for (Subscriber subscriber : adSubscribers) {
+                    subscriber.offer(event);
+                }
+            }
+        }
+    }
+
+    private boolean acquireClientSlot(String client) {
+        boolean[] acquired = new boolean[1];
+        clientSubscriptions.compute(client, (key, current) -> {
+            int used = current != null ? current : 0;
+            if (used >= maxSubscribersPerClient) {
+                return current;
+            }
+            acquired[0] = true;
+            return used + 1;
+        });
+        return acquired[0];
+    }
+
+    private void releaseClientSlot(String client) {
+        clientSubscriptions.computeIfPresent(client, (key, current) -> current > 1 ? current - 1 : null);
+    }
+
+    private void heartbeat() {
+        for (Set<Subscriber> adSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : adSubscribers) {
+                subscriber.offer(HEARTBEAT);
+            }
+        }
+    }
+
+    // Запись в сокет медленного клиента блокирует поток до таймаута Tomcat; подписчик снимается раньше
+    private void evictStalledWriters() {
+        long now = System.nanoTime();
+        for (Set<Subscriber> adSubscribers : subscribers.values()) {
+            for (Subscriber subscriber : adSubscribers) {
+                subscriber.evictIfStalled(now);
+            }
+        }
+    }
+
+    private final class Subscriber {
+
+        private final Integer adId;
+        private final String client;
+        private final SseEmitter emitter;
+        private final BlockingQueue<ChangeEventDto> buffer = new ArrayBlockingQueue<>(bufferSize);
+        private final AtomicBoolean draining = new AtomicBoolean();
+        private final AtomicBoolean closed = new AtomicBoolean();
+        private final AtomicBoolean completed = new AtomicBoolean();
+        // Начало текущей записи (System.nanoTime), 0 - запись не идет
+        private volatile long writeStartedAt;
+
+        Subscriber(Integer adId, String client, SseEmitter emitter) {
+            this.adId = adId;
+            this.client = client;
+            this.emitter = emitter;
+        }
+
+        void offer(ChangeEventDto event) {
+            if (closed.get()) {
+                return;
+            }
+            if (!buffer.offer(event)) {
+                evict();
+                return;
+            }
+            scheduleDrain();
+        }
+
+        void evictIfStalled(long now) {
+            long startedAt = writeStartedAt;
+            if (startedAt != 0 && now - startedAt > writeTimeout.toNanos()) {
+                log.debug("Comment stream subscriber of ad {} stalled on write, evicting", adId);
+                evict();
+            }
+        }
+
+        private void scheduleDrain() {
+            if (!draining.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                writer.execute(this::drain);
+            } catch (TaskRejectedException e) {
+                draining.set(false);
+                if (close()) {
+                    evictedSubscribers.increment();
+                }
+                log.debug("Comment stream subscriber of ad {} left to time out", adId);
+            }
+        }
+
+        // Единственный поток, который пишет в emitter и завершает его
+        private void drain() {
+            try {
+                ChangeEventDto event;
+                while (!closed.get() && (event = buffer.poll()) != null) {
+                    writeStartedAt = System.nanoTime();
+                    try {
+                        send(event);
+                    } finally {
+                        writeStartedAt = 0;
+                    }
+                }
+            } catch (IOException | IllegalStateException e) {
+                // Клиент отключился, ответ уже завершен или запись прервана таймаутом сокета
+                log.debug("Comment stream subscriber of ad {} dropped: {}", adId, e.getMessage());
+                close();
+            } finally {
+                draining.set(false);
+            }
+            if (closed.get()) {
+                complete();
+            } else if (!buffer.isEmpty()) {
+                // Событие, положенное после выхода из цикла, но до сброса флага
+                scheduleDrain();
+            }
+        }
+
+        private void send(ChangeEventDto event) throws IOException {
+            if (event == HEARTBEAT) {
+                emitter.send(SseEmitter.event().comment("keepalive"));
+                return;
+            }
+            if (event.getAggregate() == OutboxEvent.Aggregate.AD) {
+                // Объявление удалено: сообщаем и закрываем подписку
+                emitter.send(SseEmitter.event().name("ad-deleted").data(event, MediaType.APPLICATION_JSON));
+                close();
+                return;
+            }
+            emitter.send(SseEmitter.event()
+                    .id(String.valueOf(event.getPosition()))
+                    .name(event.getType().name().toLowerCase(Locale.ROOT))
+                    .data(event, MediaType.APPLICATION_JSON));
+        }
+
+        // Подписчик снимается сразу; соединение закрывает пишущий поток - текущий (после зависшей записи) или новый
+        private void evict() {
+            if (!close()) {
+                return;
+            }
+            evictedSubscribers.increment();
+            buffer.clear();
+            scheduleDrain();
+        }
+
+        private void complete() {
+            if (completed.compareAndSet(false, true)) {
+                try {
+                    emitter.complete();
+                } catch (IllegalStateException e) {
+                    log.debug("Comment stream of ad {} already completed", adId);
+                }
+            }
+        }
+
+        boolean close() {
+            if (!closed.compareAndSet(false, true)) {
+                return false;
+            }
+            subscribers.computeIfPresent(adId, (id, adSubscribers) -> {
+                adSubscribers.remove(this);
+                return adSubscribers.isEmpty() ? null : adSubscribers;
+            });
+            count.decrementAndGet();
+            releaseClientSlot(client);
+            return true;
+        }
+    }
+}
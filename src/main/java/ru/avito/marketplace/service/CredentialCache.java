@@ -0,0 +1,126 @@
+package ru.avito.marketplace.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.stereotype.Component;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш недавно проверенных учетных данных Basic Auth.
+ * Хранит не пароль, а HMAC-SHA256 от него на случайном ключе процесса,
+ * поэтому повторный запрос с тем же паролем проверяется без BCrypt и без обращения к БД.
+ */
+@Slf4j
+@Component
+public class CredentialCache {
+
+    private final BoundedExpiringCache<String, VerifiedCredentials> entries;
+    private final SecretKeySpec digestKey;
+    private final Counter hits;
+    private final Counter misses;
+
+    // Увеличивается при каждой инвалидации, чтобы параллельная проверка не вернула в кэш старый пароль
+    private final AtomicLong generation = new AtomicLong();
+
+    public CredentialCache(MeterRegistry meterRegistry,
+                           @Value("${avito.auth.credential-cache.ttl:5m}") Duration ttl,
+                           @Value("${avito.auth.credential-cache.max-size:10000}") int maxSize) {
+        this.entries = new BoundedExpiringCache<>(maxSize, ttl);
+
+        byte[] key = new byte[32];
+        new SecureRandom().nextBytes(key);
+        this.digestKey = new SecretKeySpec(key, "HmacSHA256");
+
+        this.hits = Counter.builder("avito.auth.credential.cache")
+                .tag("result", "hit")
+                .description("Basic Auth requests verified from the credential cache")
+                .register(meterRegistry);
+        this.misses = Counter.builder("avito.auth.credential.cache")
+                .tag("result", "miss")
+                .description("Basic Auth requests verified with BCrypt")
+                .register(meterRegistry);
+        Gauge.builder("avito.auth.credential.cache.size", entries, BoundedExpiringCache::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Поиск ранее проверенных учетных данных
+     * @return данные пользователя или null, если пароль не совпадает или записи нет
+     */
+    public UserDetails get(String username, String password) {
+        VerifiedCredentials cached = entries.get(username);
+        if (cached != null && MessageDigest.isEqual(cached.digest(), digest(username, password))) {
+            hits.increment();
+            return cached.user();
+        }
+        misses.increment();
+        return null;
+    }
+
+    public long currentGeneration() {
+        return generation.get();
+    }
+
+    /**
+     * Запоминание успешно проверенных учетных данных
+     * @param checkedGeneration значение {@link #currentGeneration()} до начала проверки
+     */
+    public void put(String username, String password, UserDetails user, long checkedGeneration) {
+        byte[] digest = digest(username, password);
+        synchronized (entries) {
+            if (generation.get() == checkedGeneration) {
+                entries.put(username, new VerifiedCredentials(digest, user));
+            }
+        }
+    }
+
+    /**
+     * Сброс записи пользователя (смена пароля или роли)
+     */
+    public void evict(String username) {
+        generation.incrementAndGet();
+        entries.remove(username);
+        log.debug("Credential cache evicted: {}", username);
+    }
+
+    /**
+     * Сброс записи пользователя после коммита текущей транзакции,
+     * чтобы параллельная проверка по еще не измененной строке не вернула в кэш старый пароль
+     */
+    public void evictAfterCommit(String username) {
+        AfterCommit.run(() -> evict(username));
+    }
+
+    public void clear() {
+        generation.incrementAndGet();
+        entries.clear();
+        log.debug("Credential cache cleared");
+    }
+
+    private byte[] digest(String username, String password) {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(digestKey);
+            mac.update(username.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return mac.doFinal(password.getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 недоступен", e);
+        }
+    }
+
+    private record VerifiedCredentials(byte[] digest, UserDetails user) {
+    }
+}
@@ -0,0 +1,145 @@
+package ru.avito.marketplace.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.avito.marketplace.repository.ImageBlobRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Удаление файлов изображений вне потока запроса: после коммита транзакции,
+ * на ограниченном фоновом пуле, с повторами при ошибках файловой системы.
+ * Что не удалось удалить или не поместилось в очередь, позже найдет ImageOrphanSweeper.
+ */
+@Slf4j
+@Component
+public class ImageDeletionQueue {
+
+    private final ThreadPoolTaskScheduler scheduler;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageVariantService imageVariantService;
+    private final TransactionTemplate transactionTemplate;
+    private final int capacity;
+    private final int maxAttempts;
+    private final Duration retryDelay;
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    public ImageDeletionQueue(@Qualifier("imageMaintenanceScheduler") ThreadPoolTaskScheduler scheduler,
+                              ImageBlobRepository imageBlobRepository,
+                              ImageVariantService imageVariantService,
+                              TransactionTemplate transactionTemplate,
+                              @Value("${avito.images.deletion.queue-capacity:1000}") int capacity,
+                              @Value("${avito.images.deletion.max-attempts:5}") int maxAttempts,
+                              @Value("${avito.images.deletion.retry-delay:10s}") Duration retryDelay) {
+        this.scheduler = scheduler;
+        this.imageBlobRepository = imageBlobRepository;
+        this.imageVariantService = imageVariantService;
+        this.transactionTemplate = transactionTemplate;
+        this.capacity = capacity;
+        this.maxAttempts = maxAttempts;
+        this.retryDelay = retryDelay;
+    }
+
+    /**
+     * Постановка файла в очередь на удаление после коммита текущей транзакции.
+     * При откате файл остается на месте; вне транзакции задача ставится сразу.
+     */
+    public void deleteAfterCommit(String imagePath) {
+        if (imagePath == null || imagePath.isEmpty()) {
+            return;
+        }
+
+        AfterCommit.run(() -> schedule(imagePath, 1, Duration.ZERO));
+    }
+
+    /**
+     * Постановка в очередь файла, сохраненного в текущей транзакции, если она откатится:
+     * на него не останется ни ссылки, ни строки счетчика. Удаление, как и обычное,
+     * проверяет счетчик под блокировкой, поэтому файл, уже нужный параллельной загрузке, останется.
+     */
+    public void deleteAfterRollback(String imagePath) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void afterCompletion(int status) {
+                if (status == STATUS_ROLLED_BACK) {
+                    schedule(imagePath, 1, Duration.ZERO);
+                }
+            }
+        });
+    }
+
+    private void schedule(String imagePath, int attempt, Duration delay) {
+        if (pending.incrementAndGet() > capacity) {
+            pending.decrementAndGet();
+            log.warn("Image deletion queue is full, {} is left to the orphan sweeper", imagePath);
+            return;
+        }
+
+        try {
+            scheduler.schedule(() -> {
+                pending.decrementAndGet();
+                run(imagePath, attempt);
+            }, Instant.now().plus(delay));
+        } catch (TaskRejectedException e) {
+            pending.decrementAndGet();
+            log.warn("Image deletion rejected for {}: {}", imagePath, e.getMessage());
+        }
+    }
+
+    private void run(String imagePath, int attempt) {
+        try {
+            transactionTemplate.executeWithoutResult(status -> deleteIfUnreferenced(imagePath));
+        } catch (RuntimeException e) {
+            if (attempt >= maxAttempts) {
+                log.error("Failed to delete image {} after {} attempts", imagePath, attempt, e);
+                return;
+            }
+            // Экспоненциальная пауза между попытками
+            Duration delay = retryDelay.multipliedBy(1L << (attempt - 1));
+            log.warn("Failed to delete image {} (attempt {}), retrying in {}: {}",
+                    imagePath, attempt, delay, e.getMessage());
+            schedule(imagePath, attempt + 1, delay);
+        }
+    }
+
+    /**
+     * Удаление под блокировкой строки счетчика: загрузка того же содержимого
+     * ждет коммита и затем записывает файл заново, а не ссылается на удаленный
+     */
+    private void deleteIfUnreferenced(String imagePath) {
+        imageBlobRepository.lockForDeletion(imagePath);
+        int refCount = imageBlobRepository.findRefCount(imagePath).orElse(0);
+        if (refCount > 0) {
+            log.debug("Image still referenced: {}", imagePath);
+            return;
+        }
+
+        Path filePath = ImageService.toFilePath(imagePath);
+        try {
+            if (Files.deleteIfExists(filePath)) {
+                log.info("Image deleted: {}", imagePath);
+            }
+            imageVariantService.deleteVariants(filePath);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        imageBlobRepository.deleteIfUnreferenced(imagePath);
+    }
+}
@@ -0,0 +1,131 @@
+package ru.avito.marketplace.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import ru.avito.marketplace.constants.ApiConstants;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.UserRepository;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * Периодический поиск файлов в images/ads и images/avatars, на которые не ссылается
+ * ни ads.image, ни users.image (сбой после коммита, переполненная очередь удалений, откат загрузки).
+ * Каталоги обходятся пачками кандидатов, и ссылки проверяются запросом только по пачке,
+ * поэтому память не зависит ни от числа файлов, ни от размера таблиц.
+ */
+@Slf4j
+@Component
+public class ImageOrphanSweeper {
+
+    private static final List<String> SUBDIRS = List.of(ApiConstants.ADS_SUBDIR, ApiConstants.AVATARS_SUBDIR);
+    private static final int CHUNK_SIZE = 500;
+
+    private final ThreadPoolTaskScheduler scheduler;
+    private final AdRepository adRepository;
+    private final UserRepository userRepository;
+    private final ImageDeletionQueue imageDeletionQueue;
+    private final Duration interval;
+    private final Duration minAge;
+
+    public ImageOrphanSweeper(@Qualifier("imageMaintenanceScheduler") ThreadPoolTaskScheduler scheduler,
+                              AdRepository adRepository,
+                              UserRepository userRepository,
+                              ImageDeletionQueue imageDeletionQueue,
+                              @Value("${avito.images.sweeper.interval:6h}") Duration interval,
+                              @Value("${avito.images.sweeper.min-age:1h}") Duration minAge) {
+        this.scheduler = scheduler;
+        this.adRepository = adRepository;
+        this.userRepository = userRepository;
+        this.imageDeletionQueue = imageDeletionQueue;
+        this.interval = interval;
+        this.minAge = minAge;
+    }
+
+    @PostConstruct
+    public void start() {
+        if (interval.isZero() || interval.isNegative()) {
+            log.info("Image orphan sweeper is disabled");
+            return;
+        }
+        scheduler.scheduleWithFixedDelay(this::sweep, Instant.now().plus(interval), interval);
+    }
+
+    public void sweep() {
+        try {
+            // Файлы моложе minAge не трогаем, чтобы не удалить загрузку, транзакция которой еще не закоммичена
+            Instant cutoff = Instant.now().minus(minAge);
+
+            int orphans = 0;
+            for (String subdir : SUBDIRS) {
+                orphans += sweep(Paths.get(ApiConstants.IMAGES_DIRECTORY + subdir), cutoff);
+            }
+            log.info("Image orphan sweep finished: {} files queued for deletion", orphans);
+        } catch (Exception e) {
+            // Исключение остановило бы периодический запуск
+            log.error("Image orphan sweep failed", e);
+        }
+    }
+
+    private int sweep(Path directory, Instant cutoff) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+
+        int orphans = 0;
+        List<String> candidates = new ArrayList<>(CHUNK_SIZE);
+        try (Stream<Path> files = Files.walk(directory)) {
+            Iterator<Path> iterator = files.filter(Files::isRegularFile).iterator();
+            while (iterator.hasNext()) {
+                Path file = iterator.next();
+                // Копии удаляются вместе с оригиналом, файлы по умолчанию не хранятся в БД
+                if (ImageVariantService.isVariant(file) || file.getFileName().toString().contains("default")) {
+                    continue;
+                }
+                if (Files.getLastModifiedTime(file).toInstant().isAfter(cutoff)) {
+                    continue;
+                }
+
+                candidates.add("/" + file.toString().replace(File.separatorChar, '/'));
+                if (candidates.size() == CHUNK_SIZE) {
+                    orphans += queueUnreferenced(candidates);
+                    candidates.clear();
+                }
+            }
+        }
+        return orphans + queueUnreferenced(candidates);
+    }
+
+    private int queueUnreferenced(List<String> candidates) {
+        if (candidates.isEmpty()) {
+            return 0;
+        }
+        Set<String> referenced = new HashSet<>(adRepository.findImagesIn(candidates));
+        referenced.addAll(userRepository.findImagesIn(candidates));
+
+        int orphans = 0;
+        for (String imagePath : candidates) {
+            if (!referenced.contains(imagePath)) {
+                imageDeletionQueue.deleteAfterCommit(imagePath);
+                orphans++;
+            }
+        }
+        return orphans;
+    }
+}
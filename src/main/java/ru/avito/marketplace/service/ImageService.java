@@ -1,89 +1,369 @@
 package ru.avito.marketplace.service;
 
 import ru.avito.marketplace.constants.ApiConstants;
+import ru.avito.marketplace.exception.ImageNotFoundException;
+import ru.avito.marketplace.repository.ImageBlobRepository;
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
 import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Service
+@RequiredArgsConstructor
 public class ImageService {
 
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BUFFER_POOL_SIZE = 32;
+
+    // Имя файла в контентно-адресуемом хранилище: sha-256 содержимого
+    private static final Pattern CONTENT_ADDRESSED_NAME = Pattern.compile("[0-9a-f]{64}\\.[a-z]+");
+
+    // Пул direct-буферов: память на одну загрузку постоянна и не зависит от размера файла
+    private final BlockingQueue<ByteBuffer> bufferPool = new ArrayBlockingQueue<>(BUFFER_POOL_SIZE);
+
+    private final Path imagesRoot = Paths.get(ApiConstants.IMAGES_DIRECTORY).toAbsolutePath().normalize();
+    private final Path stagingDirectory = Paths.get(ApiConstants.IMAGES_DIRECTORY + ApiConstants.STAGING_SUBDIR);
+
+    private final ImageVariantService imageVariantService;
+    private final ImageBlobRepository imageBlobRepository;
+    private final ImageDeletionQueue imageDeletionQueue;
+    private final TransactionTemplate transactionTemplate;
+
+    @Value("${avito.images.content-addressed:true}")
+    private boolean contentAddressed;
+
+    @Transactional
     public String saveUserAvatar(MultipartFile image) throws IOException {
-        validateImage(image);
-        String fileName = generateFileName("avatar", image.getOriginalFilename());
-        Path filePath = Paths.get(ApiConstants.IMAGES_DIRECTORY + ApiConstants.AVATARS_SUBDIR, fileName);
-        saveImage(image, filePath);
-        return "/" + ApiConstants.IMAGES_DIRECTORY + ApiConstants.AVATARS_SUBDIR + fileName;
+        return store(image, ApiConstants.AVATARS_SUBDIR, "avatar");
     }
 
+    @Transactional
     public String saveAdImage(MultipartFile image) throws IOException {
-        validateImage(image);
-        String fileName = generateFileName("ad", image.getOriginalFilename());
-        Path filePath = Paths.get(ApiConstants.IMAGES_DIRECTORY + ApiConstants.ADS_SUBDIR, fileName);
-        saveImage(image, filePath);
-        return "/" + ApiConstants.IMAGES_DIRECTORY + ApiConstants.ADS_SUBDIR + fileName;
+        return store(image, ApiConstants.ADS_SUBDIR, "ad");
     }
 
-    private void validateImage(MultipartFile image) throws IOException {
+    private void validateImage(MultipartFile image) {
         if (image == null || image.isEmpty()) {
             throw new IllegalArgumentException("Изображение не может быть пустым");
         }
 
         if (image.getSize() > ApiConstants.MAX_IMAGE_SIZE) {
-            throw new IllegalArgumentException("Размер изображения не должен превышать " +
-                    ApiConstants.MAX_IMAGE_SIZE_MB + " MB");
+            throw tooLarge();
         }
+    }
 
-        String contentType = image.getContentType();
-        boolean isValidType = false;
-        for (String allowedType : ApiConstants.ALLOWED_IMAGE_TYPES) {
-            if (allowedType.equals(contentType)) {
-                isValidType = true;
-                break;
-            }
+    private String store(MultipartFile image, String subdir, String prefix) throws IOException {
+        validateImage(image);
+
+        Path directory = Paths.get(ApiConstants.IMAGES_DIRECTORY + subdir);
+        Files.createDirectories(directory);
+
+        // Пишем во временный файл и переименовываем только после проверки формата
+        Path tempFile = Files.createTempFile(directory, prefix + "_", ".part");
+        try {
+            return place(tempFile, copyToFile(image, tempFile), subdir, prefix);
+        } finally {
+            Files.deleteIfExists(tempFile);
         }
+    }
+
+    /**
+     * Прием загрузки в промежуточный каталог без проверки содержимого и вне транзакции.
+     * Принятый файл затем обрабатывается через {@link #storeStaged}.
+     */
+    public Path stage(MultipartFile image) throws IOException {
+        validateImage(image);
+
+        Files.createDirectories(stagingDirectory);
+        Path staged = stagingDirectory.resolve(UUID.randomUUID() + ".part");
+        image.transferTo(staged);
+        return staged;
+    }
 
-        if (!isValidType) {
-            throw new IllegalArgumentException("Недопустимый тип изображения. Разрешены: " +
-                    String.join(", ", ApiConstants.ALLOWED_IMAGE_TYPES));
+    /**
+     * Сохранение принятой загрузки. Формат, размер и хэш проверяются до транзакции,
+     * а в короткой транзакции файл публикуется и ссылка на него передается в apply.
+     * Принятый файл удаляется в любом случае.
+     * Если apply завершится ошибкой (например, объявление удалено за время обработки), транзакция
+     * откатывается, а опубликованный этим вызовом файл ставится в очередь на удаление.
+     * @return путь сохраненного изображения
+     */
+    public String storeStaged(Path staged, String subdir, String prefix, Consumer<String> apply) throws IOException {
+        try {
+            StoredContent content = inspect(staged);
+            return transactionTemplate.execute(status -> {
+                try {
+                    String imagePath = place(staged, content, subdir, prefix);
+                    apply.accept(imagePath);
+                    return imagePath;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } finally {
+            Files.deleteIfExists(staged);
         }
     }
 
-    private String generateFileName(String prefix, String originalFileName) {
-        String extension = "";
-        if (originalFileName != null && originalFileName.contains(".")) {
-            extension = originalFileName.substring(originalFileName.lastIndexOf("."));
+    // Задания загрузки живут в памяти, поэтому файлы, принятые до перезапуска, больше никому не нужны
+    @PostConstruct
+    void purgeStaging() throws IOException {
+        if (!Files.isDirectory(stagingDirectory)) {
+            return;
+        }
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(stagingDirectory, "*.part")) {
+            for (Path file : files) {
+                Files.deleteIfExists(file);
+            }
         }
-        return prefix + "_" + UUID.randomUUID() + extension;
     }
 
-    private void saveImage(MultipartFile image, Path filePath) throws IOException {
+    // Перенос проверенного файла на постоянное место; source остается у вызывающего кода
+    private String place(Path source, StoredContent content, String subdir, String prefix) throws IOException {
+        String imagePath = contentAddressed
+                ? "/" + ApiConstants.IMAGES_DIRECTORY + subdir + contentAddressedName(content)
+                : "/" + ApiConstants.IMAGES_DIRECTORY + subdir + generateFileName(prefix, content.type());
+        Path filePath = toFilePath(imagePath);
+
+        if (contentAddressed) {
+            // Счетчик увеличивается до проверки файла: параллельное удаление последней ссылки
+            // держит строку до коммита, поэтому файл здесь либо уже удален, либо останется
+            imageBlobRepository.acquire(imagePath);
+            if (Files.exists(filePath)) {
+                log.info("Image deduplicated: {}", filePath);
+                return imagePath;
+            }
+        }
         Files.createDirectories(filePath.getParent());
-        Files.write(filePath, image.getBytes());
+
+        try {
+            Files.move(source, filePath, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Тот же файл только что сохранила параллельная загрузка
+            return imagePath;
+        }
         log.info("Image saved: {}", filePath);
+        // Файл создан этим вызовом: при откате транзакции ссылки на него не останется
+        imageDeletionQueue.deleteAfterRollback(imagePath);
+
+        // Уменьшенные копии строятся в фоне, ответ клиенту не ждет
+        imageVariantService.scheduleVariants(filePath.toAbsolutePath().normalize());
+        return imagePath;
+    }
+
+    private String generateFileName(String prefix, ImageType type) {
+        return prefix + "_" + UUID.randomUUID() + type.getExtension();
+    }
+
+    /**
+     * Путь вида "ab/cd/abcd....jpg": два уровня каталогов по префиксу хэша,
+     * чтобы ни в одном каталоге не копились сотни тысяч файлов
+     */
+    private String contentAddressedName(StoredContent content) {
+        String hash = content.hash();
+        return hash.substring(0, 2) + "/" + hash.substring(2, 4) + "/" + hash + content.type().getExtension();
+    }
+
+    /**
+     * Потоковое копирование загрузки на диск через NIO-каналы.
+     * Формат проверяется по сигнатуре в первом блоке, размер - по фактически прочитанным байтам,
+     * хэш содержимого считается по тем же блокам без повторного чтения файла.
+     */
+    private StoredContent copyToFile(MultipartFile image, Path target) throws IOException {
+        try (ReadableByteChannel in = Channels.newChannel(image.getInputStream());
+             FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            return readContent(in, out);
+        }
+    }
+
+    // Те же проверки для файла, уже лежащего на диске, без копирования
+    private StoredContent inspect(Path file) throws IOException {
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readContent(in, null);
+        }
+    }
+
+    private StoredContent readContent(ReadableByteChannel in, FileChannel out) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = acquireBuffer();
+        try {
+            ImageType type = null;
+            long written = 0;
+            boolean eof = false;
+            while (!eof) {
+                eof = in.read(buffer) == -1;
+
+                if (type == null) {
+                    // Дочитываем первый блок, пока не наберется длина сигнатуры
+                    if (!eof && buffer.position() < ImageType.SIGNATURE_LENGTH) {
+                        continue;
+                    }
+                    type = ImageType.detect(buffer);
+                    if (type == null) {
+                        throw new IllegalArgumentException("Недопустимый тип изображения. Разрешены: " +
+                                String.join(", ", ApiConstants.ALLOWED_IMAGE_TYPES));
+                    }
+                }
+
+                buffer.flip();
+                written += buffer.remaining();
+                if (written > ApiConstants.MAX_IMAGE_SIZE) {
+                    throw tooLarge();
+                }
+                digest.update(buffer.duplicate());
+                while (out != null && buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                buffer.clear();
+            }
+            return new StoredContent(type, HexFormat.of().formatHex(digest.digest()));
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private ByteBuffer acquireBuffer() {
+        ByteBuffer buffer = bufferPool.poll();
+        return buffer != null ? buffer.clear() : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    private void releaseBuffer(ByteBuffer buffer) {
+        // Если пул заполнен, лишний буфер просто отдается GC
+        bufferPool.offer(buffer);
+    }
+
+    private IllegalArgumentException tooLarge() {
+        return new IllegalArgumentException("Размер изображения не должен превышать " +
+                ApiConstants.MAX_IMAGE_SIZE_MB + " MB");
     }
 
-    public void deleteImage(String imagePath) throws IOException {
+    /**
+     * Поиск файла изображения по пути внутри каталога images/
+     * @param relativePath путь вида "ads/ad_....jpg"
+     * @throws ImageNotFoundException если файла нет или путь выходит за пределы каталога
+     */
+    public Path resolveImage(String relativePath) {
+        Path filePath = imagesRoot.resolve(relativePath).normalize();
+        if (!filePath.startsWith(imagesRoot) || !Files.isRegularFile(filePath)) {
+            throw new ImageNotFoundException("Изображение не найдено");
+        }
+        return filePath;
+    }
+
+    /**
+     * Освобождение ссылки на изображение. Счетчик уменьшается в текущей транзакции,
+     * а файл удаляется фоновой очередью после коммита, если ссылок не осталось.
+     * Файлы без счетчика (загруженные до контентной адресации) принадлежат одному владельцу.
+     */
+    @Transactional
+    public void releaseImage(String imagePath) {
         if (imagePath == null || imagePath.isEmpty()) {
             return;
         }
 
-        // Убираем начальный слэш если есть
-        if (imagePath.startsWith("/")) {
-            imagePath = imagePath.substring(1);
+        imageBlobRepository.release(imagePath);
+        imageDeletionQueue.deleteAfterCommit(imagePath);
+    }
+
+    /**
+     * Еще одна ссылка на уже сохраненное изображение
+     */
+    @Transactional
+    public void retainImage(String imagePath) {
+        imageBlobRepository.acquire(imagePath);
+    }
+
+    /**
+     * Перенос файла, загруженного под случайным именем, в контентно-адресуемое хранилище.
+     * Исходный файл не удаляется: это делает вызывающий код после коммита новых путей.
+     * @return новый путь или null, если переносить нечего
+     */
+    @Transactional
+    public String migrateImage(String imagePath) throws IOException {
+        if (imagePath == null || imagePath.isEmpty() || imagePath.contains("default")) {
+            return null;
         }
+        Path source = toFilePath(imagePath);
+        String fileName = source.getFileName().toString();
+        ImageType type = ImageType.fromFileName(fileName);
+        if (type == null || CONTENT_ADDRESSED_NAME.matcher(fileName).matches() || !Files.isRegularFile(source)) {
+            return null;
+        }
+
+        String directory = imagePath.substring(0, imagePath.lastIndexOf('/') + 1);
+        String migratedPath = directory + contentAddressedName(new StoredContent(type, hash(source)));
+        Path target = toFilePath(migratedPath);
 
-        Path filePath = Paths.get(imagePath);
-        if (Files.exists(filePath)) {
-            Files.delete(filePath);
-            log.info("Image deleted: {}", imagePath);
+        imageBlobRepository.acquire(migratedPath);
+        if (!Files.exists(target)) {
+            Files.createDirectories(target.getParent());
+            try {
+                Files.createLink(target, source);
+            } catch (FileAlreadyExistsException e) {
+                // Одинаковый файл уже перенесен
+            } catch (IOException | UnsupportedOperationException e) {
+                Files.copy(source, target);
+            }
         }
+        log.debug("Image migrated: {} -> {}", imagePath, migratedPath);
+        return migratedPath;
+    }
+
+    private String hash(Path file) throws IOException {
+        MessageDigest digest = sha256();
+        ByteBuffer buffer = acquireBuffer();
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (in.read(buffer) != -1) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } finally {
+            releaseBuffer(buffer);
+        }
+    }
+
+    private MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+
+    // "/images/ads/x.jpg" -> images/ads/x.jpg относительно рабочего каталога
+    static Path toFilePath(String imagePath) {
+        return Paths.get(imagePath.startsWith("/") ? imagePath.substring(1) : imagePath);
+    }
+
+    private record StoredContent(ImageType type, String hash) {
     }
-}
\ No newline at end of file
+}
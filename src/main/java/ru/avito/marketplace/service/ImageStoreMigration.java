@@ -0,0 +1,144 @@
+package ru.avito.marketplace.service;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.avito.marketplace.entity.Ad;
+import ru.avito.marketplace.entity.OutboxEvent;
+import ru.avito.marketplace.entity.User;
+import ru.avito.marketplace.mapper.AdMapper;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.UserRepository;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Разовый перенос изображений со случайными именами в контентно-адресуемое хранилище.
+ * Запуск: java -jar app.jar --avito.images.migrate=true
+ * Выполняется после старта, когда индексы и кэши уже заполнены, поэтому каждая пачка
+ * обновляет их, пишет события в outbox и оповещает другие узлы так же, как обычная смена изображения.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "avito.images.migrate", havingValue = "true")
+public class ImageStoreMigration implements ApplicationRunner {
+
+    private static final int BATCH_SIZE = 100;
+
+    private final AdRepository adRepository;
+    private final UserRepository userRepository;
+    private final ImageService imageService;
+    private final ImageDeletionQueue imageDeletionQueue;
+    private final TransactionTemplate transactionTemplate;
+    private final AdMapper adMapper;
+    private final AdSearchIndex adSearchIndex;
+    private final AdCardCache adCardCache;
+    private final ResponseCache responseCache;
+    private final ChangeOutbox changeOutbox;
+    private final InvalidationBus invalidationBus;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        // Старый путь -> новый: одинаковые файлы у разных записей переносятся один раз
+        Map<String, String> migrated = new HashMap<>();
+
+        int ads = migrate(adRepository, Ad::getImage, Ad::setImage, this::adsMigrated, migrated);
+        int users = migrate(userRepository, User::getImage, User::setImage, this::usersMigrated, migrated);
+
+        // Старые файлы удаляются только после коммита всех новых путей;
+        // не поместившиеся в очередь уберет поиск сирот
+        for (String legacyPath : migrated.keySet()) {
+            imageDeletionQueue.deleteAfterCommit(legacyPath);
+        }
+        log.info("Image store migration finished: {} ads, {} users, {} files", ads, users, migrated.size());
+    }
+
+    private <T> int migrate(JpaRepository<T, Integer> repository,
+                            Function<T, String> getImage,
+                            BiConsumer<T, String> setImage,
+                            Consumer<List<T>> onChanged,
+                            Map<String, String> migrated) {
+        int updated = 0;
+        Pageable pageable = PageRequest.of(0, BATCH_SIZE, Sort.by("id"));
+        while (pageable != null) {
+            Pageable current = pageable;
+            Batch batch = transactionTemplate.execute(status -> {
+                Page<T> page = repository.findAll(current);
+                List<T> changed = new ArrayList<>();
+                for (T entity : page) {
+                    String migratedPath = migrateImage(getImage.apply(entity), migrated);
+                    if (migratedPath != null) {
+                        setImage.accept(entity, migratedPath);
+                        changed.add(entity);
+                    }
+                }
+                if (!changed.isEmpty()) {
+                    onChanged.accept(changed);
+                }
+                return new Batch(changed.size(), page.hasNext() ? current.next() : null);
+            });
+            updated += batch.changed();
+            pageable = batch.next();
+        }
+        return updated;
+    }
+
+    // Ссылка на изображение входит в поисковый индекс, карточки, ленту и события для подписчиков
+    private void adsMigrated(List<Ad> ads) {
+        List<Integer> ids = new ArrayList<>(ads.size());
+        for (Ad ad : ads) {
+            adSearchIndex.indexAfterCommit(ad);
+            adCardCache.evictAfterCommit(ad.getId());
+            changeOutbox.adChanged(OutboxEvent.Type.UPDATED, ad.getId(), adMapper.toAdDto(ad));
+            ids.add(ad.getId());
+        }
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+        invalidationBus.adsChanged(ids);
+    }
+
+    // Аватар автора встроен в списки комментариев
+    private void usersMigrated(List<User> users) {
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS);
+        for (User user : users) {
+            invalidationBus.userChanged(user.getId(), user.getEmail());
+        }
+    }
+
+    private String migrateImage(String imagePath, Map<String, String> migrated) {
+        try {
+            String migratedPath = migrated.get(imagePath);
+            if (migratedPath != null) {
+                imageService.retainImage(migratedPath);
+                return migratedPath;
+            }
+            migratedPath = imageService.migrateImage(imagePath);
+            if (migratedPath != null) {
+                migrated.put(imagePath, migratedPath);
+            }
+            return migratedPath;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private record Batch(int changed, Pageable next) {
+    }
+}
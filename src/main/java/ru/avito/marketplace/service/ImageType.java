@@ -0,0 +1,77 @@
+package ru.avito.marketplace.service;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Поддерживаемые форматы изображений. Формат определяется по сигнатуре файла,
+ * а не по Content-Type, присланному клиентом.
+ */
+public enum ImageType {
+
+    JPEG("image/jpeg", ".jpg", new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF}),
+    PNG("image/png", ".png", new byte[]{(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'}),
+    GIF("image/gif", ".gif", new byte[]{'G', 'I', 'F', '8'});
+
+    // Сколько первых байт нужно прочитать, чтобы распознать любой из форматов
+    public static final int SIGNATURE_LENGTH = 8;
+
+    private final String contentType;
+    private final String extension;
+    private final byte[] signature;
+
+    ImageType(String contentType, String extension, byte[] signature) {
+        this.contentType = contentType;
+        this.extension = extension;
+        this.signature = signature;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getExtension() {
+        return extension;
+    }
+
+    /**
+     * Определение формата по первым байтам буфера (от 0 до position)
+     * @return формат или null, если сигнатура не распознана
+     */
+    public static ImageType detect(ByteBuffer head) {
+        for (ImageType type : values()) {
+            if (type.matches(head)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Определение формата по расширению сохраненного файла
+     * @return формат или null, если расширение неизвестно
+     */
+    public static ImageType fromFileName(String fileName) {
+        String lowerCase = fileName.toLowerCase();
+        if (lowerCase.endsWith(".jpeg")) {
+            return JPEG;
+        }
+        for (ImageType type : values()) {
+            if (lowerCase.endsWith(type.extension)) {
+                return type;
+            }
+        }
+        return null;
+    }
+
+    private boolean matches(ByteBuffer head) {
+        if (head.position() < signature.length) {
+            return false;
+        }
+        for (int i = 0; i < signature.length; i++) {
+            if (head.get(i) != signature[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,137 @@
+package ru.avito.marketplace.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+import ru.avito.marketplace.dto.ImageJobDto;
+import ru.avito.marketplace.exception.AdNotFoundException;
+import ru.avito.marketplace.exception.ImageJobNotFoundException;
+import ru.avito.marketplace.exception.UploadQueueFullException;
+import ru.avito.marketplace.exception.UserNotFoundException;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.UUID;
+import java.util.function.Consumer;
+
+/**
+ * Асинхронная обработка загрузок изображений.
+ * Поток запроса только принимает файл в промежуточный каталог и возвращает задание;
+ * проверка, сохранение и смена ссылки выполняются в фоновом пуле,
+ * а соединение с БД занимается лишь на время короткой транзакции смены ссылки.
+ * Состояние заданий хранится в памяти экземпляра в течение job-ttl.
+ */
+@Slf4j
+@Service
+public class ImageUploadService {
+
+    private final ImageService imageService;
+    private final AuthService authService;
+    private final ThreadPoolTaskExecutor executor;
+    private final BoundedExpiringCache<UUID, Job> jobs;
+    private final Counter doneUploads;
+    private final Counter failedUploads;
+    private final Counter rejectedUploads;
+
+    public ImageUploadService(ImageService imageService,
+                              AuthService authService,
+                              @Qualifier("imageUploadExecutor") ThreadPoolTaskExecutor executor,
+                              MeterRegistry meterRegistry,
+                              @Value("${avito.images.uploads.job-ttl:1h}") Duration jobTtl,
+                              @Value("${avito.images.uploads.max-jobs:10000}") int maxJobs) {
+        this.imageService = imageService;
+        this.authService = authService;
+        this.executor = executor;
+        this.jobs = new BoundedExpiringCache<>(maxJobs, jobTtl);
+
+        this.doneUploads = Counter.builder("avito.images.uploads")
+                .tag("result", "done")
+                .description("Image uploads processed and applied")
+                .register(meterRegistry);
+        this.failedUploads = Counter.builder("avito.images.uploads")
+                .tag("result", "failed")
+                .description("Image uploads failed during processing")
+                .register(meterRegistry);
+        this.rejectedUploads = Counter.builder("avito.images.uploads")
+                .tag("result", "rejected")
+                .description("Image uploads rejected because the processing queue is full")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Прием загрузки текущего пользователя
+     * @param apply смена ссылки на сохраненное изображение; выполняется в транзакции фоновой обработки
+     * @throws UploadQueueFullException если очередь обработки заполнена
+     */
+    public ImageJobDto submit(MultipartFile image, String subdir, String prefix, Consumer<String> apply)
+            throws IOException {
+        Integer ownerId = authService.getCurrentPrincipal().id();
+        Path staged = imageService.stage(image);
+
+        Job job = new Job(UUID.randomUUID(), ownerId, ImageJobDto.Status.PENDING, null, null);
+        jobs.put(job.id(), job);
+        try {
+            executor.execute(() -> process(job, staged, subdir, prefix, apply));
+        } catch (TaskRejectedException e) {
+            jobs.remove(job.id());
+            Files.deleteIfExists(staged);
+            rejectedUploads.increment();
+            throw new UploadQueueFullException("Слишком много загрузок в обработке, повторите позже");
+        }
+        log.debug("Image upload {} accepted for user {}", job.id(), ownerId);
+        return job.toDto();
+    }
+
+    /**
+     * Состояние задания; чужие и устаревшие задания не видны
+     * @throws ImageJobNotFoundException если задания нет
+     */
+    public ImageJobDto getJob(UUID id) {
+        Job job = jobs.get(id);
+        if (job == null || !job.ownerId().equals(authService.getCurrentPrincipal().id())) {
+            throw new ImageJobNotFoundException("Задание загрузки " + id + " не найдено");
+        }
+        return job.toDto();
+    }
+
+    private void process(Job job, Path staged, String subdir, String prefix, Consumer<String> apply) {
+        jobs.put(job.id(), job.with(ImageJobDto.Status.PROCESSING, null, null));
+        try {
+            String imagePath = imageService.storeStaged(staged, subdir, prefix, apply);
+            jobs.put(job.id(), job.with(ImageJobDto.Status.DONE, imagePath, null));
+            doneUploads.increment();
+            log.info("Image upload {} applied: {}", job.id(), imagePath);
+        } catch (IllegalArgumentException | AdNotFoundException | UserNotFoundException e) {
+            // Недопустимый файл или удаленный за время обработки владелец - сообщение понятно клиенту
+            fail(job, e.getMessage());
+            log.debug("Image upload {} rejected: {}", job.id(), e.getMessage());
+        } catch (RuntimeException | IOException e) {
+            fail(job, "Не удалось сохранить изображение");
+            log.warn("Image upload {} failed", job.id(), e);
+        }
+    }
+
+    private void fail(Job job, String message) {
+        jobs.put(job.id(), job.with(ImageJobDto.Status.FAILED, null, message));
+        failedUploads.increment();
+    }
+
+    private record Job(UUID id, Integer ownerId, ImageJobDto.Status status, String image, String error) {
+
+        Job with(ImageJobDto.Status status, String image, String error) {
+            return new Job(id, ownerId, status, image, error);
+        }
+
+        ImageJobDto toDto() {
+            return new ImageJobDto(id, status, image, error);
+        }
+    }
+}
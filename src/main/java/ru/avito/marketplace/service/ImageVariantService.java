@@ -0,0 +1,252 @@
+package ru.avito.marketplace.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * Уменьшенные копии изображений фиксированной ширины (только JDK ImageIO).
+ * Копии лежат рядом с оригиналом: ad_x.jpg -> ad_x_w320.jpg.
+ */
+@Slf4j
+@Service
+public class ImageVariantService {
+
+    private static final Pattern VARIANT_NAME = Pattern.compile(".*_w\\d+\\.[a-z]+");
+    private static final int MAX_BUILT_ORIGINALS = 10_000;
+    private static final Duration BUILT_ORIGINALS_TTL = Duration.ofHours(24);
+
+    /**
+     * Файл для ответа на ?w=: exact - ответ на этот URL больше не изменится
+     * (это копия или оригинал, для которого копии такой ширины не бывает)
+     */
+    public record Resolution(Path file, boolean exact) {
+    }
+
+    private final ThreadPoolTaskExecutor executor;
+    private final List<Integer> widths;
+
+    // Ключи обеих карт - канонический путь оригинала (см. canonical): вызывающий код передает и относительные пути
+    // Генерации в процессе: фоновая задача и запрос клиента не строят одни и те же копии дважды
+    private final ConcurrentMap<Path, CompletableFuture<Void>> inProgress = new ConcurrentHashMap<>();
+    // Оригиналы, для которых генерация завершилась: отсутствующая копия значит, что оригинал уже не шире нее
+    private final BoundedExpiringCache<Path, Boolean> built =
+            new BoundedExpiringCache<>(MAX_BUILT_ORIGINALS, BUILT_ORIGINALS_TTL);
+
+    public ImageVariantService(@Qualifier("imageVariantExecutor") ThreadPoolTaskExecutor executor,
+                               @Value("${avito.images.variants.widths:160,320,640}") List<Integer> widths) {
+        this.executor = executor;
+        this.widths = widths.stream().sorted().toList();
+    }
+
+    /**
+     * Постановка генерации копий в фоновый пул (не блокирует поток запроса)
+     */
+    public void scheduleVariants(Path original) {
+        if (!supports(original)) {
+            return;
+        }
+        Path canonical = canonical(original);
+        executor.execute(() -> generateVariants(canonical));
+    }
+
+    /**
+     * Выбор файла под запрошенную ширину: ближайшая копия не уже запрошенной.
+     * Поток запроса копии не строит: если ее еще нет, генерация ставится в фоновый пул,
+     * а до ее появления отдается оригинал (не exact - ответ нельзя кэшировать надолго).
+     */
+    public Resolution resolve(Path requested, int requestedWidth) {
+        if (!supports(requested)) {
+            return new Resolution(requested, false);
+        }
+        Path original = canonical(requested);
+        Integer width = widths.stream()
+                .filter(w -> w >= requestedWidth)
+                .findFirst()
+                .orElse(null);
+        if (width == null) {
+            return new Resolution(original, true);
+        }
+
+        Path variant = variantPath(original, width);
+        if (Files.isRegularFile(variant)) {
+            return new Resolution(variant, true);
+        }
+        if (built.get(original) != null) {
+            // Оригинал не шире запрошенной копии
+            return new Resolution(original, true);
+        }
+        if (!inProgress.containsKey(original)) {
+            executor.execute(() -> generateVariants(original));
+        }
+        return new Resolution(original, false);
+    }
+
+    public void deleteVariants(Path original) throws IOException {
+        if (!supports(original)) {
+            return;
+        }
+        Path canonical = canonical(original);
+        built.remove(canonical);
+        for (Integer width : widths) {
+            Files.deleteIfExists(variantPath(canonical, width));
+        }
+    }
+
+    private void generateVariants(Path original) {
+        CompletableFuture<Void> own = new CompletableFuture<>();
+        CompletableFuture<Void> running = inProgress.putIfAbsent(original, own);
+        if (running != null) {
+            try {
+                running.join();
+            } catch (CompletionException ignored) {
+                // Ошибка уже залогирована потоком, который строил копии
+            }
+            return;
+        }
+
+        try {
+            if (writeVariants(original)) {
+                built.put(original, Boolean.TRUE);
+            }
+            own.complete(null);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Failed to build variants for {}: {}", original, e.getMessage());
+            own.completeExceptionally(e);
+        } finally {
+            inProgress.remove(original, own);
+        }
+    }
+
+    // false - оригинал не прочитан, копий не будет
+    private boolean writeVariants(Path original) throws IOException {
+        if (!Files.isRegularFile(original)) {
+            return false;
+        }
+
+        BufferedImage source = read(original, widths.get(widths.size() - 1));
+        if (source == null) {
+            return false;
+        }
+
+        String format = formatName(original);
+        for (Integer width : widths) {
+            Path variant = variantPath(original, width);
+            // Не увеличиваем: для широких запросов отдается оригинал
+            if (width >= source.getWidth() || Files.exists(variant)) {
+                continue;
+            }
+
+            BufferedImage scaled = scale(source, width, "jpg".equals(format));
+            Path tempFile = Files.createTempFile(original.getParent(), "variant_", ".part");
+            try {
+                ImageIO.write(scaled, format, tempFile.toFile());
+                Files.move(tempFile, variant, StandardCopyOption.ATOMIC_MOVE);
+                log.debug("Image variant saved: {}", variant);
+            } finally {
+                Files.deleteIfExists(tempFile);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Чтение с прореживанием: большие фото не декодируются в память целиком
+     */
+    private BufferedImage read(Path original, int maxTargetWidth) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(original.toFile())) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext()) {
+                return null;
+            }
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+                int subsampling = Math.max(1, reader.getWidth(0) / (maxTargetWidth * 2));
+                ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                // После прореживания ширина не меньше удвоенной максимальной целевой
+                return reader.read(0, param);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private BufferedImage scale(BufferedImage source, int width, boolean opaque) {
+        int height = Math.max(1, (int) Math.round((double) source.getHeight() * width / source.getWidth()));
+        BufferedImage current = source;
+
+        // Пошаговое уменьшение вдвое дает заметно лучшее качество, чем один билинейный проход
+        while (current.getWidth() / 2 >= width) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2, opaque);
+        }
+        return draw(current, width, height, opaque);
+    }
+
+    private BufferedImage draw(BufferedImage source, int width, int height, boolean opaque) {
+        BufferedImage target = new BufferedImage(width, Math.max(1, height),
+                opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB);
+        Graphics2D graphics = target.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(source, 0, 0, width, Math.max(1, height), null);
+        } finally {
+            graphics.dispose();
+        }
+        return target;
+    }
+
+    private static Path canonical(Path original) {
+        return original.toAbsolutePath().normalize();
+    }
+
+    private boolean supports(Path original) {
+        String fileName = original.getFileName().toString();
+        // Копии сами не являются источником для новых копий
+        if (VARIANT_NAME.matcher(fileName).matches()) {
+            return false;
+        }
+        // GIF не уменьшаем, чтобы не терять анимацию
+        ImageType type = ImageType.fromFileName(fileName);
+        return type == ImageType.JPEG || type == ImageType.PNG;
+    }
+
+    private String formatName(Path original) {
+        return ImageType.fromFileName(original.getFileName().toString()) == ImageType.PNG ? "png" : "jpg";
+    }
+
+    static boolean isVariant(Path file) {
+        return VARIANT_NAME.matcher(file.getFileName().toString()).matches();
+    }
+
+    static Path variantPath(Path original, int width) {
+        String fileName = original.getFileName().toString();
+        int dot = fileName.lastIndexOf('.');
+        String variantName = fileName.substring(0, dot) + "_w" + width + fileName.substring(dot);
+        return original.resolveSibling(variantName);
+    }
+}
@@ -0,0 +1,308 @@
+package ru.avito.marketplace.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Component;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Согласование кэшей и индексов в памяти между узлами через LISTEN/NOTIFY PostgreSQL.
+ * Изменение публикуется pg_notify в транзакции самого изменения: PostgreSQL доставляет уведомление
+ * только после коммита и не доставляет при откате. Каждый узел слушает канал на отдельном соединении
+ * (вне пула) и сбрасывает у себя затронутые записи; свои уведомления узел пропускает -
+ * локальные кэши уже обновлены хуками после коммита.
+ * Уведомления, отправленные пока соединение было разорвано, теряются, поэтому после каждого
+ * подключения кэши сбрасываются полностью, а индексы сверяются с БД.
+ */
+@Slf4j
+@Component
+public class InvalidationBus {
+
+    private static final Pattern CHANNEL_NAME = Pattern.compile("[a-z_][a-z0-9_]*");
+    // Предел NOTIFY - 8000 байт: 500 id по 10 цифр с запятыми укладываются с запасом
+    private static final int MAX_IDS_PER_MESSAGE = 500;
+
+    private enum Kind {
+        // Объявления изменены, созданы или удалены: id через запятую
+        AD,
+        // Изменились комментарии объявления: id объявления
+        AD_COMMENTS,
+        // Изменен профиль, пароль или роль пользователя: id и email
+        USER
+    }
+
+    private final JdbcTemplate jdbcTemplate;
+    private final DataSourceProperties dataSourceProperties;
+    private final AdRepository adRepository;
+    private final AdSearchIndex adSearchIndex;
+    private final AdPriceIndex adPriceIndex;
+    private final AdCardCache adCardCache;
+    private final ResponseCache responseCache;
+    private final PrincipalCache principalCache;
+    private final CredentialCache credentialCache;
+    private final boolean enabled;
+    private final String channel;
+    private final Duration pollTimeout;
+    private final Duration reconnectDelay;
+    private final Counter publishedMessages;
+    private final Counter receivedMessages;
+    private final Counter flushes;
+
+    // Метка узла в уведомлениях, чтобы пропускать свои
+    private final String nodeId = UUID.randomUUID().toString();
+    private final AtomicBoolean connected = new AtomicBoolean();
+    private volatile boolean running;
+    private volatile Connection connection;
+    private Thread listener;
+
+    public InvalidationBus(JdbcTemplate jdbcTemplate,
+                           DataSourceProperties dataSourceProperties,
+                           AdRepository adRepository,
+                           AdSearchIndex adSearchIndex,
+                           AdPriceIndex adPriceIndex,
+                           AdCardCache adCardCache,
+                           ResponseCache responseCache,
+                           PrincipalCache principalCache,
+                           CredentialCache credentialCache,
+                           MeterRegistry meterRegistry,
+                           @Value("${avito.invalidation.enabled:false}") boolean enabled,
+                           @Value("${avito.invalidation.channel:avito_invalidation}") String channel,
+                           @Value("${avito.invalidation.poll-timeout:10s}") Duration pollTimeout,
+                           @Value("${avito.invalidation.reconnect-delay:5s}") Duration reconnectDelay) {
+        if (!CHANNEL_NAME.matcher(channel).matches()) {
+            throw new IllegalArgumentException("Недопустимое имя канала инвалидации: " + channel);
+        }
+        this.jdbcTemplate = jdbcTemplate;
+        this.dataSourceProperties = dataSourceProperties;
+        this.adRepository = adRepository;
+        this.adSearchIndex = adSearchIndex;
+        this.adPriceIndex = adPriceIndex;
+        this.adCardCache = adCardCache;
+        this.responseCache = responseCache;
+        this.principalCache = principalCache;
+        this.credentialCache = credentialCache;
+        this.enabled = enabled;
+        this.channel = channel;
+        this.pollTimeout = pollTimeout;
+        this.reconnectDelay = reconnectDelay;
+
+        this.publishedMessages = Counter.builder("avito.invalidation.messages")
+                .tag("result", "published")
+                .description("Cache invalidation messages sent to other nodes")
+                .register(meterRegistry);
+        this.receivedMessages = Counter.builder("avito.invalidation.messages")
+                .tag("result", "received")
+                .description("Cache invalidation messages applied from other nodes")
+                .register(meterRegistry);
+        this.flushes = Counter.builder("avito.invalidation.flushes")
+                .description("Full cache flushes after (re)connecting to the invalidation channel")
+                .register(meterRegistry);
+        Gauge.builder("avito.invalidation.connected", connected, c -> c.get() ? 1 : 0)
+                .description("Whether the invalidation listener is connected")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        running = true;
+        listener = new Thread(this::listen, "invalidation-listener");
+        listener.setDaemon(true);
+        listener.start();
+    }
+
+    @PreDestroy
+    public void stop() {
+        running = false;
+        if (listener != null) {
+            listener.interrupt();
+            closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Объявления созданы, изменены или удалены; уведомление уходит при коммите текущей транзакции
+     */
+    public void adsChanged(Collection<Integer> adIds) {
+        if (!enabled || adIds.isEmpty()) {
+            return;
+        }
+        List<Integer> ids = new ArrayList<>(adIds);
+        for (int from = 0; from < ids.size(); from += MAX_IDS_PER_MESSAGE) {
+            List<Integer> chunk = ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_MESSAGE));
+            publish(Kind.AD, chunk.stream().map(String::valueOf).collect(Collectors.joining(",")));
+        }
+    }
+
+    public void adChanged(Integer adId) {
+        adsChanged(List.of(adId));
+    }
+
+    /**
+     * Изменились комментарии объявления
+     */
+    public void commentsChanged(Integer adId) {
+        if (enabled) {
+            publish(Kind.AD_COMMENTS, String.valueOf(adId));
+        }
+    }
+
+    /**
+     * Изменены профиль, пароль или роль пользователя
+     */
+    public void userChanged(Integer userId, String email) {
+        if (enabled) {
+            publish(Kind.USER, userId + " " + email);
+        }
+    }
+
+    // Вне транзакции pg_notify выполняется в автокоммите, то есть сразу
+    private void publish(Kind kind, String arguments) {
+        String payload = nodeId + " " + kind + " " + arguments;
+        jdbcTemplate.query("SELECT pg_notify(?, ?)", rs -> null, channel, payload);
+        publishedMessages.increment();
+    }
+
+    private void listen() {
+        while (running) {
+            try (Connection listening = DriverManager.getConnection(dataSourceProperties.determineUrl(),
+                    dataSourceProperties.determineUsername(), dataSourceProperties.determinePassword())) {
+                connection = listening;
+                try (Statement statement = listening.createStatement()) {
+                    statement.execute("LISTEN " + channel);
+                }
+                connected.set(true);
+                log.info("Invalidation listener connected to channel {}", channel);
+                flushAll();
+
+                PGConnection pgConnection = listening.unwrap(PGConnection.class);
+                while (running) {
+                    PGNotification[] notifications = pgConnection.getNotifications((int) pollTimeout.toMillis());
+                    if (notifications == null || notifications.length == 0) {
+                        // Тишина в канале не отличается от полуоткрытого соединения без проверки
+                        if (!listening.isValid((int) Math.max(1, pollTimeout.toSeconds()))) {
+                            throw new SQLException("Invalidation connection is no longer valid");
+                        }
+                        continue;
+                    }
+                    for (PGNotification notification : notifications) {
+                        apply(notification.getParameter());
+                    }
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (running) {
+                    log.warn("Invalidation listener disconnected, reconnecting in {}", reconnectDelay, e);
+                }
+            } finally {
+                connected.set(false);
+                connection = null;
+            }
+            sleep(reconnectDelay);
+        }
+    }
+
+    private void apply(String payload) {
+        String[] parts = payload.split(" ", 3);
+        if (parts.length < 3) {
+            log.warn("Malformed invalidation message ignored: {}", payload);
+            return;
+        }
+        if (parts[0].equals(nodeId)) {
+            return;
+        }
+        Kind kind;
+        try {
+            kind = Kind.valueOf(parts[1]);
+        } catch (IllegalArgumentException e) {
+            log.warn("Unknown invalidation message ignored: {}", payload);
+            return;
+        }
+        switch (kind) {
+            case AD -> adsChangedElsewhere(Arrays.stream(parts[2].split(","))
+                    .map(Integer::valueOf)
+                    .toList());
+            case AD_COMMENTS -> {
+                // Число комментариев входит в страницы ленты с этим объявлением
+                Integer adId = Integer.valueOf(parts[2]);
+                responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS, adId);
+                responseCache.changedAfterCommit(ResponseCache.Scope.ADS, adId);
+            }
+            case USER -> {
+                String[] user = parts[2].split(" ", 2);
+                principalCache.evict(user[1]);
+                credentialCache.evict(user[1]);
+                // Имя и телефон автора входят в карточки объявлений и в комментарии
+                adCardCache.authorChangedAfterCommit(user[1]);
+                responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS);
+            }
+        }
+        receivedMessages.increment();
+        log.debug("Invalidation message applied: {}", payload);
+    }
+
+    private void adsChangedElsewhere(List<Integer> adIds) {
+        List<AdFeedRow> rows = adRepository.findSearchRowsByIdIn(adIds);
+        adSearchIndex.refresh(adIds, rows);
+        adPriceIndex.refresh(adIds, rows);
+        adCardCache.evictAfterCommit(adIds);
+        responseCache.changedAfterCommit(ResponseCache.Scope.ADS);
+    }
+
+    // Версии кэша ответов увеличиваются после сверки индексов, чтобы отбросить и ответы, собранные во время нее
+    private void flushAll() {
+        adCardCache.clear();
+        principalCache.clear();
+        credentialCache.clear();
+        adSearchIndex.build();
+        adPriceIndex.build();
+        for (ResponseCache.Scope scope : ResponseCache.Scope.values()) {
+            responseCache.changedAfterCommit(scope);
+        }
+        flushes.increment();
+    }
+
+    private static void sleep(Duration delay) {
+        try {
+            Thread.sleep(delay.toMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            log.debug("Invalidation connection close failed: {}", e.getMessage());
+        }
+    }
+}
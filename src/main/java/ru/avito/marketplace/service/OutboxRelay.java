@@ -0,0 +1,368 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import ru.avito.marketplace.dto.ChangeEventDto;
+import ru.avito.marketplace.exception.TooManySubscribersException;
+import ru.avito.marketplace.repository.OutboxEventRepository;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Публикация событий из outbox.
+ * Один узел за раз (advisory lock) назначает закоммиченным событиям позиции без пропусков,
+ * после чего каждый приемник - SSE-подписчик, локальный файл или слушатель внутри приложения -
+ * дочитывает события после своей позиции.
+ * Доставка идет в отдельном пуле, поэтому медленный приемник не задерживает остальных.
+ */
+@Slf4j
+@Component
+public class OutboxRelay {
+
+    private static final long SEQUENCER_LOCK = 0x6F7574626F78L; // "outbox"
+    private static final Duration PURGE_INTERVAL = Duration.ofHours(1);
+
+    private final OutboxEventRepository outboxEventRepository;
+    private final TransactionTemplate transactionTemplate;
+    private final ThreadPoolTaskScheduler scheduler;
+    private final ThreadPoolTaskExecutor deliveryExecutor;
+    private final ObjectMapper objectMapper;
+    private final Duration pollInterval;
+    private final int batchSize;
+    private final Duration retention;
+    private final int maxSubscribers;
+    private final Duration streamTimeout;
+    private final Duration heartbeat;
+    private final String fileSinkPath;
+    private final Counter sequencedEvents;
+
+    private final List<Sink> sinks = new CopyOnWriteArrayList<>();
+    private final AtomicInteger streams = new AtomicInteger();
+    private final AtomicBoolean wakeUpScheduled = new AtomicBoolean();
+
+    // Последняя назначенная позиция
+    private volatile long head;
+
+    public OutboxRelay(OutboxEventRepository outboxEventRepository,
+                       TransactionTemplate transactionTemplate,
+                       @Qualifier("outboxScheduler") ThreadPoolTaskScheduler scheduler,
+                       @Qualifier("outboxDeliveryExecutor") ThreadPoolTaskExecutor deliveryExecutor,
+                       ObjectMapper objectMapper,
+                       MeterRegistry meterRegistry,
+                       @Value("${avito.outbox.poll-interval:500ms}") Duration pollInterval,
+                       @Value("${avito.outbox.batch-size:500}") int batchSize,
+                       @Value("${avito.outbox.retention:7d}") Duration retention,
+                       @Value("${avito.outbox.max-subscribers:16}") int maxSubscribers,
+                       @Value("${avito.outbox.stream-timeout:1h}") Duration streamTimeout,
+                       @Value("${avito.outbox.heartbeat:15s}") Duration heartbeat,
+                       @Value("${avito.outbox.file-sink.path:}") String fileSinkPath) {
+        this.outboxEventRepository = outboxEventRepository;
+        this.transactionTemplate = transactionTemplate;
+        this.scheduler = scheduler;
+        this.deliveryExecutor = deliveryExecutor;
+        this.objectMapper = objectMapper;
+        this.pollInterval = pollInterval;
+        this.batchSize = batchSize;
+        this.retention = retention;
+        this.maxSubscribers = maxSubscribers;
+        this.streamTimeout = streamTimeout;
+        this.heartbeat = heartbeat;
+        this.fileSinkPath = fileSinkPath;
+
+        this.sequencedEvents = Counter.builder("avito.outbox.events")
+                .tag("result", "sequenced")
+                .description("Outbox events assigned a stream position on this node")
+                .register(meterRegistry);
+        Gauge.builder("avito.outbox.subscribers", streams, AtomicInteger::get)
+                .description("Open change stream subscriptions")
+                .register(meterRegistry);
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        head = outboxEventRepository.findHeadPosition();
+        if (!fileSinkPath.isBlank()) {
+            FileSink fileSink = new FileSink(Paths.get(fileSinkPath));
+            sinks.add(fileSink);
+            log.info("Outbox file sink: {} from position {}", fileSinkPath, fileSink.position);
+        }
+        scheduler.scheduleWithFixedDelay(this::relay, pollInterval);
+        scheduler.scheduleWithFixedDelay(this::purge, Instant.now().plus(PURGE_INTERVAL), PURGE_INTERVAL);
+    }
+
+    /**
+     * Подписка на поток изменений
+     * @param after позиция последнего полученного события; null - только новые события.
+     *              События старше срока хранения outbox уже удалены и не повторяются
+     * @throws TooManySubscribersException если достигнут предел подписок
+     */
+    public SseEmitter subscribe(Long after) {
+        if (streams.incrementAndGet() > maxSubscribers) {
+            streams.decrementAndGet();
+            throw new TooManySubscribersException("Слишком много подписок на поток изменений, повторите позже");
+        }
+        SseEmitter emitter = new SseEmitter(streamTimeout.toMillis());
+        StreamSink sink = new StreamSink(emitter, after != null ? Math.max(0, after) : head);
+        emitter.onCompletion(sink::close);
+        emitter.onTimeout(sink::close);
+        emitter.onError(e -> sink.close());
+        sinks.add(sink);
+        wakeUp();
+        return emitter;
+    }
+
+    /**
+     * Слушатель событий внутри приложения, начиная с текущей позиции.
+     * Вызывается из пула доставки последовательно и не должен блокироваться.
+     */
+    public void addListener(Consumer<List<ChangeEventDto>> listener) {
+        sinks.add(new ListenerSink(listener, head));
+    }
+
+    /**
+     * Внеочередной запуск публикации после коммита текущей транзакции
+     */
+    public void wakeUpAfterCommit() {
+        AfterCommit.run(this::wakeUp);
+    }
+
+    // Запуски подряд схлопываются; планировщик однопоточный, поэтому relay не выполняется параллельно
+    private void wakeUp() {
+        if (wakeUpScheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(() -> {
+                    wakeUpScheduled.set(false);
+                    relay();
+                });
+            } catch (TaskRejectedException e) {
+                // Событие подхватит периодический запуск
+                wakeUpScheduled.set(false);
+            }
+        }
+    }
+
+    void relay() {
+        try {
+            sequence();
+            head = outboxEventRepository.findHeadPosition();
+            long now = System.nanoTime();
+            for (Sink sink : sinks) {
+                if (sink.position < head || now - sink.lastSentNanos >= heartbeat.toNanos()) {
+                    deliver(sink);
+                }
+            }
+        } catch (Exception e) {
+            // Исключение остановило бы периодический запуск
+            log.warn("Outbox relay failed", e);
+        }
+    }
+
+    private void sequence() {
+        Integer assigned;
+        do {
+            assigned = transactionTemplate.execute(status -> outboxEventRepository.tryLockSequencer(SEQUENCER_LOCK)
+                    ? outboxEventRepository.assignPositions(batchSize)
+                    : 0);
+            sequencedEvents.increment(assigned);
+        } while (assigned == batchSize);
+    }
+
+    // Не более одной доставки на приемник одновременно
+    private void deliver(Sink sink) {
+        if (!sink.delivering.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            deliveryExecutor.execute(() -> {
+                try {
+                    while (sink.isOpen() && sink.position < head) {
+                        List<ChangeEventDto> events = outboxEventRepository.findPublishedAfter(
+                                sink.position, PageRequest.of(0, batchSize));
+                        if (events.isEmpty()) {
+                            break;
+                        }
+                        sink.publish(events);
+                        sink.position = events.get(events.size() - 1).getPosition();
+                        sink.lastSentNanos = System.nanoTime();
+                    }
+                    if (sink.isOpen() && System.nanoTime() - sink.lastSentNanos >= heartbeat.toNanos()) {
+                        sink.heartbeat();
+                        sink.lastSentNanos = System.nanoTime();
+                    }
+                } catch (Exception e) {
+                    sink.fail(e);
+                } finally {
+                    sink.delivering.set(false);
+                }
+            });
+        } catch (TaskRejectedException e) {
+            sink.delivering.set(false);
+        }
+    }
+
+    private void purge() {
+        try {
+            Integer deleted = transactionTemplate.execute(status ->
+                    outboxEventRepository.deletePublishedBefore(OffsetDateTime.now().minus(retention)));
+            if (deleted != null && deleted > 0) {
+                log.info("Outbox purged: {} events older than {}", deleted, retention);
+            }
+        } catch (Exception e) {
+            log.warn("Outbox purge failed", e);
+        }
+    }
+
+    private abstract static class Sink {
+
+        final AtomicBoolean delivering = new AtomicBoolean();
+
+        // Позиция последнего доставленного события; меняется только внутри доставки
+        volatile long position;
+        volatile long lastSentNanos = System.nanoTime();
+
+        abstract void publish(List<ChangeEventDto> events) throws IOException;
+
+        void heartbeat() throws IOException {
+        }
+
+        abstract void fail(Exception e);
+
+        boolean isOpen() {
+            return true;
+        }
+    }
+
+    private final class StreamSink extends Sink {
+
+        private final SseEmitter emitter;
+        private final AtomicBoolean closed = new AtomicBoolean();
+
+        StreamSink(SseEmitter emitter, long position) {
+            this.emitter = emitter;
+            this.position = position;
+        }
+
+        @Override
+        void publish(List<ChangeEventDto> events) throws IOException {
+            for (ChangeEventDto event : events) {
+                emitter.send(SseEmitter.event()
+                        .id(String.valueOf(event.getPosition()))
+                        .name("change")
+                        .data(event, MediaType.APPLICATION_JSON));
+            }
+        }
+
+        @Override
+        void heartbeat() throws IOException {
+            // Комментарий SSE держит соединение через прокси и выявляет отключившихся клиентов
+            emitter.send(SseEmitter.event().comment("keepalive"));
+        }
+
+        @Override
+        void fail(Exception e) {
+            log.debug("Change stream subscriber dropped: {}", e.getMessage());
+            close();
+            emitter.completeWithError(e);
+        }
+
+        @Override
+        boolean isOpen() {
+            return !closed.get();
+        }
+
+        void close() {
+            if (closed.compareAndSet(false, true)) {
+                sinks.remove(this);
+                streams.decrementAndGet();
+            }
+        }
+    }
+
+    private static final class ListenerSink extends Sink {
+
+        private final Consumer<List<ChangeEventDto>> listener;
+
+        ListenerSink(Consumer<List<ChangeEventDto>> listener, long position) {
+            this.listener = listener;
+            this.position = position;
+        }
+
+        @Override
+        void publish(List<ChangeEventDto> events) {
+            listener.accept(events);
+        }
+
+        @Override
+        void fail(Exception e) {
+            log.warn("Outbox listener failed", e);
+        }
+    }
+
+    /**
+     * Локальный файл NDJSON. Позиция хранится рядом в файле .offset и сдвигается после записи пачки,
+     * поэтому после сбоя часть событий может повториться - получатель отбрасывает их по position.
+     */
+    private final class FileSink extends Sink {
+
+        private final Path file;
+        private final Path offsetFile;
+
+        FileSink(Path file) throws IOException {
+            this.file = file;
+            this.offsetFile = file.resolveSibling(file.getFileName() + ".offset");
+            if (file.toAbsolutePath().getParent() != null) {
+                Files.createDirectories(file.toAbsolutePath().getParent());
+            }
+            this.position = Files.exists(offsetFile) ? Long.parseLong(Files.readString(offsetFile).trim()) : 0;
+        }
+
+        @Override
+        void publish(List<ChangeEventDto> events) throws IOException {
+            try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                for (ChangeEventDto event : events) {
+                    writer.write(objectMapper.writeValueAsString(event));
+                    writer.newLine();
+                }
+            }
+            Path temp = offsetFile.resolveSibling(offsetFile.getFileName() + ".tmp");
+            Files.writeString(temp, String.valueOf(events.get(events.size() - 1).getPosition()));
+            Files.move(temp, offsetFile, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        @Override
+        void fail(Exception e) {
+            // Приемник остается: следующий запуск повторит пачку с сохраненной позиции
+            log.warn("Outbox file sink write failed: {}", file, e);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package ru.avito.marketplace.service;
+
+import ru.avito.marketplace.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Позиция в выдаче, отсортированной по цене: keyset по (price, id).
+ * Клиенту отдается как непрозрачный base64url-токен.
+ */
+public record PriceCursor(int price, int id) {
+
+    private static final String SEPARATOR = "|";
+
+    public String encode() {
+        String raw = price + SEPARATOR + id;
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static PriceCursor decode(String token) {
+        try {
+            String raw = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            int separator = raw.indexOf(SEPARATOR);
+            if (separator <= 0) {
+                throw new InvalidCursorException("Некорректный курсор страницы");
+            }
+            return new PriceCursor(Integer.parseInt(raw.substring(0, separator)),
+                    Integer.parseInt(raw.substring(separator + 1)));
+        } catch (IllegalArgumentException e) {
+            throw new InvalidCursorException("Некорректный курсор страницы");
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.avito.marketplace.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.core.userdetails.UsernameNotFoundException;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import ru.avito.marketplace.repository.UserRepository;
+import ru.avito.marketplace.repository.projection.UserPrincipal;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Кэш id и роли аутентифицированных пользователей.
+ * Два уровня: память текущего HTTP-запроса и общий ограниченный LRU с TTL,
+ * чтобы проверки прав не ходили в БД за одним и тем же пользователем.
+ */
+@Slf4j
+@Component
+public class PrincipalCache {
+
+    private static final String REQUEST_ATTRIBUTE = PrincipalCache.class.getName() + ".principals";
+
+    private final UserRepository userRepository;
+    private final BoundedExpiringCache<String, UserPrincipal> shared;
+
+    // Увеличивается при каждой инвалидации, чтобы параллельная загрузка не вернула в кэш устаревшие данные
+    private final AtomicLong generation = new AtomicLong();
+
+    public PrincipalCache(UserRepository userRepository,
+                          @Value("${avito.principal-cache.ttl:5m}") Duration ttl,
+                          @Value("${avito.principal-cache.max-size:10000}") int maxSize) {
+        this.userRepository = userRepository;
+        this.shared = new BoundedExpiringCache<>(maxSize, ttl);
+    }
+
+    /**
+     * Получение сведений о пользователе по email
+     * @throws UsernameNotFoundException если пользователь не найден
+     */
+    public UserPrincipal get(String email) {
+        Map<String, UserPrincipal> requestPrincipals = requestPrincipals();
+        if (requestPrincipals != null) {
+            UserPrincipal principal = requestPrincipals.get(email);
+            if (principal != null) {
+                return principal;
+            }
+        }
+
+        UserPrincipal principal = shared.get(email);
+        if (principal == null) {
+            long loadGeneration = generation.get();
+            principal = userRepository.findPrincipalByEmail(email)
+                    .orElseThrow(() -> new UsernameNotFoundException("Пользователь не найден"));
+            putShared(email, principal, loadGeneration);
+        }
+
+        if (requestPrincipals != null) {
+            requestPrincipals.put(email, principal);
+        }
+        return principal;
+    }
+
+    /**
+     * Сброс записи пользователя (смена профиля, пароля или роли)
+     */
+    public void evict(String email) {
+        generation.incrementAndGet();
+        shared.remove(email);
+        Map<String, UserPrincipal> requestPrincipals = requestPrincipals();
+        if (requestPrincipals != null) {
+            requestPrincipals.remove(email);
+        }
+        log.debug("Principal cache evicted: {}", email);
+    }
+
+    /**
+     * Сброс записи пользователя после коммита текущей транзакции: до коммита параллельный запрос
+     * прочитал бы старую строку и вернул ее в кэш. Запись текущего запроса сбрасывается сразу
+     */
+    public void evictAfterCommit(String email) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            Map<String, UserPrincipal> requestPrincipals = requestPrincipals();
+            if (requestPrincipals != null) {
+                requestPrincipals.remove(email);
+            }
+        }
+        AfterCommit.run(() -> evict(email));
+    }
+
+    /**
+     * Полный сброс кэша
+     */
+    public void clear() {
+        generation.incrementAndGet();
+        shared.clear();
+        Map<String, UserPrincipal> requestPrincipals = requestPrincipals();
+        if (requestPrincipals != null) {
+            requestPrincipals.clear();
+        }
+        log.debug("Principal cache cleared");
+    }
+
+    private void putShared(String email, UserPrincipal principal, long loadGeneration) {
+        synchronized (shared) {
+            if (generation.get() == loadGeneration) {
+                shared.put(email, principal);
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, UserPrincipal> requestPrincipals() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+        Map<String, UserPrincipal> principals = (Map<String, UserPrincipal>)
+                attributes.getAttribute(REQUEST_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (principals == null) {
+            principals = new HashMap<>();
+            attributes.setAttribute(REQUEST_ATTRIBUTE, principals, RequestAttributes.SCOPE_REQUEST);
+        }
+        return principals;
+    }
+}
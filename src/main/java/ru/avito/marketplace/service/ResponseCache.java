@@ -0,0 +1,201 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.DigestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Кэш готовых JSON-ответов публичных списков (лента объявлений, комментарии).
+ * Версии берутся из общего возрастающего счетчика: запись хранит значение, прочитанное до загрузки,
+ * и действительна, пока ни ее область целиком, ни один из ее тегов (id объявлений в ответе)
+ * не изменились позже. Сервисы отмечают изменения после коммита записи в БД,
+ * поэтому комментарий к одному объявлению сбрасывает только ответы с этим объявлением.
+ */
+@Component
+public class ResponseCache {
+
+    public enum Scope {
+        ADS,
+        COMMENTS
+    }
+
+    /**
+     * Сериализованный ответ: JSON в UTF-8 и, для больших ответов, его gzip-копия
+     */
+    public record CachedResponse(long version, Set<Object> tags, String etag, byte[] json, byte[] gzip) {
+    }
+
+    // Сколько тегов области помнить; при превышении область сбрасывается целиком и старые теги забываются
+    private static final int MAX_TAGS_PER_SCOPE = 100_000;
+
+    private final ObjectMapper objectMapper;
+    private final BoundedExpiringCache<String, CachedResponse> entries;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<Scope, ScopeVersions> versions = new EnumMap<>(Scope.class);
+    private final int gzipMinSize;
+    private final Counter hits;
+    private final Counter misses;
+
+    public ResponseCache(ObjectMapper objectMapper,
+                         MeterRegistry meterRegistry,
+                         @Value("${avito.responses.cache.ttl:5m}") Duration ttl,
+                         @Value("${avito.responses.cache.max-size:500}") int maxSize,
+                         @Value("${avito.responses.cache.gzip-min-size:1024}") int gzipMinSize) {
+        this.objectMapper = objectMapper;
+        this.entries = new BoundedExpiringCache<>(maxSize, ttl);
+        this.gzipMinSize = gzipMinSize;
+        for (Scope scope : Scope.values()) {
+            versions.put(scope, new ScopeVersions());
+        }
+
+        this.hits = Counter.builder("avito.responses.cache")
+                .tag("result", "hit")
+                .description("List responses served from pre-serialized JSON")
+                .register(meterRegistry);
+        this.misses = Counter.builder("avito.responses.cache")
+                .tag("result", "miss")
+                .description("List responses serialized on request")
+                .register(meterRegistry);
+        Gauge.builder("avito.responses.cache.size", entries, BoundedExpiringCache::size)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Готовый ответ из кэша или результат loader, сериализованный и сохраненный под текущей версией
+     * @param key параметры запроса, однозначно задающие ответ внутри области
+     */
+    public CachedResponse get(Scope scope, String key, Supplier<?> loader) {
+        return get(scope, key, loader, body -> Set.of());
+    }
+
+    /**
+     * Готовый ответ из кэша или результат loader, помеченный тегами из tags
+     * @param tags теги ответа, по которым его сбрасывает {@link #changedAfterCommit(Scope, Object)}
+     */
+    public <T> CachedResponse get(Scope scope, String key, Supplier<T> loader,
+                                  Function<? super T, ? extends Collection<?>> tags) {
+        String cacheKey = scope.name() + ':' + key;
+        // Версия читается до загрузки: если запись в БД закоммитится во время загрузки,
+        // ответ сохранится под устаревшей версией и не будет выдан
+        long version = sequence.get();
+
+        CachedResponse cached = entries.get(cacheKey);
+        if (cached != null && versions.get(scope).isCurrent(cached)) {
+            hits.increment();
+            return cached;
+        }
+
+        misses.increment();
+        T body = loader.get();
+        CachedResponse response = serialize(version, Set.copyOf(tags.apply(body)), body);
+        entries.put(cacheKey, response);
+        return response;
+    }
+
+    /**
+     * Сброс всех ответов области после коммита текущей транзакции
+     */
+    public void changedAfterCommit(Scope scope) {
+        afterCommit(() -> versions.get(scope).changed(sequence.incrementAndGet()));
+    }
+
+    /**
+     * Сброс ответов области с тегом tag после коммита текущей транзакции
+     */
+    public void changedAfterCommit(Scope scope, Object tag) {
+        afterCommit(() -> versions.get(scope).changed(tag, sequence.incrementAndGet()));
+    }
+
+    private void afterCommit(Runnable change) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                // afterCompletion вызывается после всех afterCommit, то есть после обновления индексов в памяти
+                @Override
+                public void afterCompletion(int status) {
+                    if (status == STATUS_COMMITTED) {
+                        change.run();
+                    }
+                }
+            });
+        } else {
+            change.run();
+        }
+    }
+
+    private CachedResponse serialize(long version, Set<Object> tags, Object body) {
+        byte[] json;
+        try {
+            json = objectMapper.writeValueAsBytes(body);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Не удалось сериализовать ответ", e);
+        }
+        String etag = "\"" + DigestUtils.md5DigestAsHex(json) + "\"";
+        byte[] gzip = json.length >= gzipMinSize ? gzip(json) : null;
+        return new CachedResponse(version, tags, etag, json, gzip);
+    }
+
+    private static byte[] gzip(byte[] data) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(data);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Версии области: общая и по тегам. Значения только растут
+     */
+    private final class ScopeVersions {
+
+        private final AtomicLong scope = new AtomicLong();
+        private final ConcurrentMap<Object, Long> tags = new ConcurrentHashMap<>();
+
+        // Теги проверяются раньше общей версии: тег удаляется из карты только после ее увеличения
+        boolean isCurrent(CachedResponse response) {
+            for (Object tag : response.tags()) {
+                Long changed = tags.get(tag);
+                if (changed != null && changed > response.version()) {
+                    return false;
+                }
+            }
+            return scope.get() <= response.version();
+        }
+
+        void changed(long version) {
+            scope.accumulateAndGet(version, Math::max);
+        }
+
+        void changed(Object tag, long version) {
+            tags.merge(tag, version, Math::max);
+            if (tags.size() > MAX_TAGS_PER_SCOPE) {
+                long forgotten = sequence.incrementAndGet();
+                changed(forgotten);
+                tags.values().removeIf(tagVersion -> tagVersion < forgotten);
+            }
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ru.avito.marketplace.service;
+
+/**
+ * Стеммер русского языка по алгоритму Snowball (Портер).
+ * Все окончания отсекаются только внутри области RV - после первой гласной.
+ */
+final class RussianStemmer {
+
+    private static final String VOWELS = "аеиоуыэюя";
+
+    // Окончания первой группы допустимы только после "а" или "я"
+    private static final String[] PERFECTIVE_GERUND_1 = {"вшись", "вши", "в"};
+    private static final String[] PERFECTIVE_GERUND_2 = {"ившись", "ывшись", "ивши", "ывши", "ив", "ыв"};
+    private static final String[] REFLEXIVE = {"ся", "сь"};
+    private static final String[] ADJECTIVE = {
+            "ими", "ыми", "его", "ого", "ему", "ому", "ее", "ие", "ые", "ое", "ей", "ий", "ый", "ой",
+            "ем", "им", "ым", "ом", "их", "ых", "ую", "юю", "ая", "яя", "ою", "ею"
+    };
+    private static final String[] PARTICIPLE_1 = {"ем", "нн", "вш", "ющ", "щ"};
+    private static final String[] PARTICIPLE_2 = {"ивш", "ывш", "ующ"};
+    private static final String[] VERB_1 = {
+            "ете", "йте", "ешь", "нно", "ла", "на", "ли", "ем", "ло", "но", "ет", "ют", "ны", "ть", "й", "л", "н"
+    };
+    private static final String[] VERB_2 = {
+            "ейте", "уйте", "ила", "ыла", "ена", "ите", "или", "ыли", "ило", "ыло", "ено", "ует", "уют",
+            "ены", "ить", "ыть", "ишь", "ей", "уй", "ил", "ыл", "им", "ым", "ен", "ят", "ит", "ыт", "ую", "ю"
+    };
+    private static final String[] NOUN = {
+            "иями", "ями", "ами", "ией", "иям", "ием", "иях", "ев", "ов", "ие", "ье", "еи", "ии", "ей", "ой",
+            "ий", "ям", "ем", "ам", "ом", "ах", "ях", "ию", "ью", "ия", "ья", "а", "е", "и", "й", "о", "у",
+            "ы", "ь", "ю", "я"
+    };
+    private static final String[] SUPERLATIVE = {"ейше", "ейш"};
+    private static final String[] DERIVATIONAL = {"ость", "ост"};
+
+    private RussianStemmer() {
+        // Утилитный класс
+    }
+
+    static String stem(String word) {
+        int rv = regionAfterFirstVowel(word);
+        if (rv >= word.length()) {
+            return word;
+        }
+        StringBuilder sb = new StringBuilder(word);
+
+        // Шаг 1
+        if (!removeEnding(sb, rv, PERFECTIVE_GERUND_1, true) && !removeEnding(sb, rv, PERFECTIVE_GERUND_2, false)) {
+            removeEnding(sb, rv, REFLEXIVE, false);
+            if (removeEnding(sb, rv, ADJECTIVE, false)) {
+                if (!removeEnding(sb, rv, PARTICIPLE_1, true)) {
+                    removeEnding(sb, rv, PARTICIPLE_2, false);
+                }
+            } else if (!removeEnding(sb, rv, VERB_1, true) && !removeEnding(sb, rv, VERB_2, false)) {
+                removeEnding(sb, rv, NOUN, false);
+            }
+        }
+
+        // Шаг 2
+        if (sb.length() > rv && sb.charAt(sb.length() - 1) == 'и') {
+            sb.setLength(sb.length() - 1);
+        }
+
+        // Шаг 3: словообразовательные окончания только в R2
+        int r2 = nextRegion(word, nextRegion(word, 0));
+        removeEnding(sb, Math.max(r2, rv), DERIVATIONAL, false);
+
+        // Шаг 4
+        if (endsWith(sb, rv, "нн")) {
+            sb.setLength(sb.length() - 1);
+        } else if (removeEnding(sb, rv, SUPERLATIVE, false)) {
+            if (endsWith(sb, rv, "нн")) {
+                sb.setLength(sb.length() - 1);
+            }
+        } else if (endsWith(sb, rv, "ь")) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    // RV: часть слова после первой гласной
+    private static int regionAfterFirstVowel(String word) {
+        for (int i = 0; i < word.length(); i++) {
+            if (isVowel(word.charAt(i))) {
+                return i + 1;
+            }
+        }
+        return word.length();
+    }
+
+    // R1 от начала слова, R2 - то же правило, примененное к R1
+    private static int nextRegion(String word, int from) {
+        for (int i = from; i < word.length() - 1; i++) {
+            if (isVowel(word.charAt(i)) && !isVowel(word.charAt(i + 1))) {
+                return i + 2;
+            }
+        }
+        return word.length();
+    }
+
+    /**
+     * Отсечение самого длинного подходящего окончания внутри области, начинающейся с regionStart.
+     * Массивы окончаний упорядочены от длинных к коротким.
+     */
+    private static boolean removeEnding(StringBuilder sb, int regionStart, String[] endings, boolean afterAOrYa) {
+        for (String ending : endings) {
+            if (!endsWith(sb, regionStart, ending)) {
+                continue;
+            }
+            int start = sb.length() - ending.length();
+            if (afterAOrYa) {
+                if (start - 1 < regionStart) {
+                    continue;
+                }
+                char previous = sb.charAt(start - 1);
+                if (previous != 'а' && previous != 'я') {
+                    continue;
+                }
+            }
+            sb.setLength(start);
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean endsWith(StringBuilder sb, int regionStart, String ending) {
+        int start = sb.length() - ending.length();
+        if (start < regionStart) {
+            return false;
+        }
+        for (int i = 0; i < ending.length(); i++) {
+            if (sb.charAt(start + i) != ending.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isVowel(char c) {
+        return VOWELS.indexOf(c) >= 0;
+    }
+}
@@ -0,0 +1,126 @@
+package ru.avito.marketplace.service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Разбор текста для поискового индекса: токены в нижнем регистре (ё -> е),
+ * без стоп-слов, со стеммингом для русского и английского.
+ */
+final class SearchAnalyzer {
+
+    private static final int MIN_TOKEN_LENGTH = 2;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "и", "в", "во", "на", "с", "со", "по", "за", "из", "к", "ко", "у", "о", "об", "от", "до",
+            "для", "не", "но", "а", "или", "же", "бы", "ли", "то", "это", "как", "что",
+            "the", "a", "an", "and", "or", "of", "to", "in", "on", "for", "with", "is", "at", "by"
+    );
+
+    private SearchAnalyzer() {
+        // Утилитный класс
+    }
+
+    /**
+     * Нормализованные токены без стемминга (нужны для поиска по префиксу)
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+
+        String normalized = text.toLowerCase(Locale.ROOT).replace('ё', 'е');
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean letter = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (letter && start < 0) {
+                start = i;
+            } else if (!letter && start >= 0) {
+                String token = normalized.substring(start, i);
+                if (token.length() >= MIN_TOKEN_LENGTH && !STOP_WORDS.contains(token)) {
+                    tokens.add(token);
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    static String stem(String token) {
+        if (isCyrillic(token)) {
+            return RussianStemmer.stem(token);
+        }
+        if (isLatin(token)) {
+            return stemEnglish(token);
+        }
+        return token;
+    }
+
+    private static boolean isCyrillic(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            if (Character.UnicodeBlock.of(token.charAt(i)) != Character.UnicodeBlock.CYRILLIC) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLatin(String token) {
+        for (int i = 0; i < token.length(); i++) {
+            char c = token.charAt(i);
+            if (c < 'a' || c > 'z') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Облегченный стеммер для английского: множественное число, -ing, -ed, -ly
+     */
+    private static String stemEnglish(String word) {
+        if (word.length() <= 3) {
+            return word;
+        }
+
+        String stem = word;
+        if (stem.endsWith("sses")) {
+            stem = stem.substring(0, stem.length() - 2);
+        } else if (stem.endsWith("ies") && stem.length() > 4) {
+            stem = stem.substring(0, stem.length() - 3) + "y";
+        } else if (stem.endsWith("s") && !stem.endsWith("ss") && !stem.endsWith("us")) {
+            stem = stem.substring(0, stem.length() - 1);
+        }
+
+        if (stem.endsWith("ing") && hasVowel(stem, stem.length() - 3)) {
+            stem = undouble(stem.substring(0, stem.length() - 3));
+        } else if (stem.endsWith("ed") && hasVowel(stem, stem.length() - 2)) {
+            stem = undouble(stem.substring(0, stem.length() - 2));
+        } else if (stem.endsWith("ly") && stem.length() > 4) {
+            stem = stem.substring(0, stem.length() - 2);
+        }
+        return stem;
+    }
+
+    private static boolean hasVowel(String word, int end) {
+        for (int i = 0; i < end; i++) {
+            if ("aeiouy".indexOf(word.charAt(i)) >= 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // running -> run, но не fall -> fal
+    private static String undouble(String word) {
+        int length = word.length();
+        if (length > 2 && word.charAt(length - 1) == word.charAt(length - 2)
+                && "lsz".indexOf(word.charAt(length - 1)) < 0) {
+            return word.substring(0, length - 1);
+        }
+        return word;
+    }
+}
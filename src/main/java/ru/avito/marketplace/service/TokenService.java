@@ -0,0 +1,148 @@
+package ru.avito.marketplace.service;
+
+import jakarta.annotation.PostConstruct;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.security.authentication.AuthenticationManager;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.oauth2.jose.jws.MacAlgorithm;
+import org.springframework.security.oauth2.jwt.JwsHeader;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.jwt.JwtClaimsSet;
+import org.springframework.security.oauth2.jwt.JwtDecoder;
+import org.springframework.security.oauth2.jwt.JwtEncoder;
+import org.springframework.security.oauth2.jwt.JwtEncoderParameters;
+import org.springframework.security.oauth2.jwt.JwtException;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
+import ru.avito.marketplace.config.JwtConfig;
+import ru.avito.marketplace.dto.LoginReq;
+import ru.avito.marketplace.dto.LoginRes;
+import ru.avito.marketplace.entity.User;
+import ru.avito.marketplace.repository.UserRepository;
+
+import javax.crypto.SecretKey;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Base64;
+import java.util.List;
+
+/**
+ * Выдача и обновление подписанных (HS256) bearer-токенов.
+ * BCrypt выполняется один раз при входе, дальше запросы проверяются по подписи токена.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+@Transactional(readOnly = true)
+public class TokenService {
+
+    // Отпечаток хэша пароля в refresh-токене: после смены пароля старые refresh-токены недействительны
+    private static final String PASSWORD_CLAIM = "pwd";
+
+    private final JwtEncoder jwtEncoder;
+    private final SecretKey jwtSecretKey;
+    private final AuthenticationManager authenticationManager;
+    private final UserRepository userRepository;
+
+    @Value("${avito.jwt.issuer:avito-marketplace}")
+    private String issuer;
+
+    @Value("${avito.jwt.access-ttl:15m}")
+    private Duration accessTtl;
+
+    @Value("${avito.jwt.refresh-ttl:7d}")
+    private Duration refreshTtl;
+
+    private JwtDecoder refreshTokenDecoder;
+
+    @PostConstruct
+    void init() {
+        refreshTokenDecoder = JwtConfig.decoder(jwtSecretKey, issuer, JwtConfig.REFRESH_TOKEN_TYPE);
+    }
+
+    /**
+     * Вход по email и паролю
+     * @throws BadCredentialsException если email или пароль неверны
+     */
+    public LoginRes login(LoginReq loginReq) {
+        Authentication authentication = authenticationManager.authenticate(
+                UsernamePasswordAuthenticationToken.unauthenticated(loginReq.getUsername(), loginReq.getPassword())
+        );
+
+        User user = userRepository.findByEmail(authentication.getName())
+                .orElseThrow(() -> new BadCredentialsException("Пользователь не найден"));
+
+        log.info("Выданы токены для пользователя: {}", user.getEmail());
+        return issueTokens(user);
+    }
+
+    /**
+     * Обмен refresh-токена на новую пару токенов
+     * @throws BadCredentialsException если токен недействителен или пароль был изменен
+     */
+    public LoginRes refresh(String refreshToken) {
+        Jwt jwt;
+        try {
+            jwt = refreshTokenDecoder.decode(refreshToken);
+        } catch (JwtException e) {
+            log.debug("Недействительный refresh-токен: {}", e.getMessage());
+            throw new BadCredentialsException("Недействительный refresh-токен");
+        }
+
+        User user = userRepository.findByEmail(jwt.getSubject())
+                .orElseThrow(() -> new BadCredentialsException("Недействительный refresh-токен"));
+
+        if (!passwordFingerprint(user.getPassword()).equals(jwt.getClaimAsString(PASSWORD_CLAIM))) {
+            log.debug("Refresh-токен выдан до смены пароля: {}", user.getEmail());
+            throw new BadCredentialsException("Недействительный refresh-токен");
+        }
+
+        return issueTokens(user);
+    }
+
+    private LoginRes issueTokens(User user) {
+        Instant now = Instant.now();
+
+        JwtClaimsSet accessClaims = JwtClaimsSet.builder()
+                .issuer(issuer)
+                .subject(user.getEmail())
+                .issuedAt(now)
+                .expiresAt(now.plus(accessTtl))
+                .claim(JwtConfig.TOKEN_TYPE_CLAIM, JwtConfig.ACCESS_TOKEN_TYPE)
+                .claim(JwtConfig.ROLES_CLAIM, List.of(user.getRole()))
+                .build();
+
+        JwtClaimsSet refreshClaims = JwtClaimsSet.builder()
+                .issuer(issuer)
+                .subject(user.getEmail())
+                .issuedAt(now)
+                .expiresAt(now.plus(refreshTtl))
+                .claim(JwtConfig.TOKEN_TYPE_CLAIM, JwtConfig.REFRESH_TOKEN_TYPE)
+                .claim(PASSWORD_CLAIM, passwordFingerprint(user.getPassword()))
+                .build();
+
+        return new LoginRes(encode(accessClaims), encode(refreshClaims), accessTtl.toSeconds());
+    }
+
+    private String encode(JwtClaimsSet claims) {
+        JwsHeader header = JwsHeader.with(MacAlgorithm.HS256).build();
+        return jwtEncoder.encode(JwtEncoderParameters.from(header, claims)).getTokenValue();
+    }
+
+    private static String passwordFingerprint(String passwordHash) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(passwordHash.getBytes(StandardCharsets.UTF_8));
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(digest).substring(0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 недоступен", e);
+        }
+    }
+}
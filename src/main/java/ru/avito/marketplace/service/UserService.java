@@ -1,5 +1,7 @@
 package ru.avito.marketplace.service;
 
+import ru.avito.marketplace.constants.ApiConstants;
+import ru.avito.marketplace.dto.ImageJobDto;
 import ru.avito.marketplace.dto.UpdateUserDto;
 import ru.avito.marketplace.dto.UserDto;
 import ru.avito.marketplace.entity.User;
@@ -9,10 +11,13 @@ import ru.avito.marketplace.repository.UserRepository;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.IOException;
+import java.util.UUID;
 
 @Slf4j
 @Service
@@ -24,12 +29,16 @@ public class UserService {
     private final UserMapper userMapper;
     private final AuthService authService;
     private final ImageService imageService;
+    private final PrincipalCache principalCache;
+    private final AdCardCache adCardCache;
+    private final ResponseCache responseCache;
+    private final ImageUploadService imageUploadService;
+    private final InvalidationBus invalidationBus;
 
     public UserDto getCurrentUser() {
         String email = authService.getCurrentUsername();
-        User user = userRepository.findByEmail(email)
+        return userRepository.findDtoByEmail(email)
                 .orElseThrow(() -> new UserNotFoundException("Пользователь не найден"));
-        return userMapper.toDto(user);
     }
 
     @Transactional
@@ -38,28 +47,48 @@ public class UserService {
         userMapper.updateEntity(updateUserDto, user);
 
         User updatedUser = userRepository.save(user);
+        principalCache.evictAfterCommit(updatedUser.getEmail());
+        // Имя и телефон автора встроены в карточки его объявлений
+        adCardCache.authorChangedAfterCommit(updatedUser.getEmail());
+        // Имя и аватар автора встроены в списки комментариев
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS);
+        invalidationBus.userChanged(updatedUser.getId(), updatedUser.getEmail());
         log.info("User updated: {}", updatedUser.getEmail());
 
         return userMapper.toDto(updatedUser);
     }
 
-    @Transactional
-    public UserDto updateUserImage(MultipartFile image) throws IOException {
-        User user = getCurrentUserEntity();
+    // Файл принимается сразу, проверка, сохранение и смена аватара - в фоне
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public ImageJobDto updateUserImage(MultipartFile image) throws IOException {
+        Integer userId = authService.getCurrentPrincipal().id();
+        return imageUploadService.submit(image, ApiConstants.AVATARS_SUBDIR, "avatar",
+                imagePath -> applyUserImage(userId, imagePath));
+    }
+
+    // Смена ссылки на уже сохраненное изображение. Вызывается из лямбды мимо прокси, поэтому транзакцию
+    // открывает вызывающий код - ImageService.storeStaged; без нее изменения и сбросы кэшей после коммита потерялись бы
+    private void applyUserImage(Integer userId, String imagePath) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("applyUserImage выполняется только в транзакции ImageService.storeStaged");
+        }
+        User user = userRepository.findById(userId)
+                .orElseThrow(() -> new UserNotFoundException("Пользователь не найден"));
 
         // Удаляем старое изображение если есть и это не дефолтное
         if (user.getImage() != null && !user.getImage().contains("default")) {
-            imageService.deleteImage(user.getImage());
+            imageService.releaseImage(user.getImage());
         }
-
-        // Сохраняем новое изображение
-        String imagePath = imageService.saveUserAvatar(image);
         user.setImage(imagePath);
 
         User updatedUser = userRepository.save(user);
+        responseCache.changedAfterCommit(ResponseCache.Scope.COMMENTS);
+        invalidationBus.userChanged(updatedUser.getId(), updatedUser.getEmail());
         log.info("User image updated for: {}", updatedUser.getEmail());
+    }
 
-        return userMapper.toDto(updatedUser);
+    public ImageJobDto getImageJob(UUID jobId) {
+        return imageUploadService.getJob(jobId);
     }
 
     private User getCurrentUserEntity() {
@@ -0,0 +1,94 @@
+package ru.avito.marketplace.config;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.BadCredentialsException;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.authentication.dao.DaoAuthenticationProvider;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.bcrypt.BCryptPasswordEncoder;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.InMemoryUserDetailsManager;
+import ru.avito.marketplace.service.CredentialCache;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.clearInvocations;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class CachingAuthenticationProviderTest {
+
+    private static final String EMAIL = "user@example.com";
+    private static final String PASSWORD = "password123";
+
+    private final PasswordEncoder passwordEncoder = spy(new BCryptPasswordEncoder(4));
+    private final CredentialCache credentialCache =
+            new CredentialCache(new SimpleMeterRegistry(), Duration.ofMinutes(5), 100);
+    private final InMemoryUserDetailsManager users = new InMemoryUserDetailsManager();
+    private CachingAuthenticationProvider provider;
+
+    @BeforeEach
+    void setUp() {
+        users.createUser(User.withUsername(EMAIL).password(passwordEncoder.encode(PASSWORD)).roles("USER").build());
+
+        DaoAuthenticationProvider dao = new DaoAuthenticationProvider();
+        dao.setUserDetailsService(users);
+        dao.setPasswordEncoder(passwordEncoder);
+        provider = new CachingAuthenticationProvider(dao, credentialCache);
+        clearInvocations(passwordEncoder);
+    }
+
+    @Test
+    void repeatedLoginIsServedFromCache() {
+        Authentication first = provider.authenticate(login(PASSWORD));
+        Authentication second = provider.authenticate(login(PASSWORD));
+
+        verify(passwordEncoder, times(1)).matches(any(), anyString());
+        assertThat(second.isAuthenticated()).isTrue();
+        assertThat(second.getName()).isEqualTo(first.getName());
+        assertThat(second.getAuthorities()).extracting("authority").containsExactly("ROLE_USER");
+        assertThat(second.getCredentials()).isNull();
+    }
+
+    @Test
+    void wrongPasswordIsCheckedByDelegate() {
+        provider.authenticate(login(PASSWORD));
+
+        assertThatThrownBy(() -> provider.authenticate(login("wrong"))).isInstanceOf(BadCredentialsException.class);
+        assertThatThrownBy(() -> provider.authenticate(login("wrong"))).isInstanceOf(BadCredentialsException.class);
+        verify(passwordEncoder, times(3)).matches(any(), anyString());
+    }
+
+    @Test
+    void passwordChangeInvalidatesCachedCredentials() {
+        provider.authenticate(login(PASSWORD));
+
+        users.updateUser(User.withUsername(EMAIL).password(passwordEncoder.encode("newPassword1")).roles("USER").build());
+        credentialCache.evict(EMAIL);
+        clearInvocations(passwordEncoder);
+
+        assertThatThrownBy(() -> provider.authenticate(login(PASSWORD))).isInstanceOf(BadCredentialsException.class);
+        assertThat(provider.authenticate(login("newPassword1")).isAuthenticated()).isTrue();
+        verify(passwordEncoder, times(2)).matches(any(), anyString());
+    }
+
+    @Test
+    void requestWithoutCredentialsSkipsCache() {
+        assertThatThrownBy(() -> provider.authenticate(UsernamePasswordAuthenticationToken.unauthenticated(EMAIL, null)))
+                .isInstanceOf(BadCredentialsException.class);
+        verify(passwordEncoder, never()).matches(any(), anyString());
+    }
+
+    private static Authentication login(String password) {
+        return UsernamePasswordAuthenticationToken.unauthenticated(EMAIL, password);
+    }
+}
@@ -0,0 +1,44 @@
+package ru.avito.marketplace.config;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class JwtConfigTest {
+
+    @Test
+    void missingSecretFailsStartup() {
+        assertThatThrownBy(() -> config("").jwtSecretKey())
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("JWT_SECRET");
+    }
+
+    @Test
+    void shortSecretFailsStartup() {
+        String secret = Base64.getEncoder().encodeToString(new byte[16]);
+        assertThatThrownBy(() -> config(secret).jwtSecretKey())
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void notBase64SecretFailsStartup() {
+        assertThatThrownBy(() -> config("not base64 !!!").jwtSecretKey())
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void acceptsSecretOf256Bits() {
+        String secret = Base64.getEncoder().encodeToString(new byte[32]);
+        assertThat(config(secret).jwtSecretKey().getEncoded()).hasSize(32);
+    }
+
+    private static JwtConfig config(String secret) {
+        JwtConfig config = new JwtConfig();
+        ReflectionTestUtils.setField(config, "secret", secret);
+        return config;
+    }
+}
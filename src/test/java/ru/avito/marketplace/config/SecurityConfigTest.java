@@ -0,0 +1,113 @@
+package ru.avito.marketplace.config;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Import;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.crypto.password.PasswordEncoder;
+import org.springframework.security.provisioning.JdbcUserDetailsManager;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.web.SpringJUnitWebConfig;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.config.annotation.EnableWebMvc;
+import ru.avito.marketplace.service.CredentialCache;
+
+import javax.sql.DataSource;
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.security.test.web.servlet.request.SecurityMockMvcRequestPostProcessors.httpBasic;
+import static org.springframework.security.test.web.servlet.setup.SecurityMockMvcConfigurers.springSecurity;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+@SpringJUnitWebConfig(SecurityConfigTest.TestConfig.class)
+@TestPropertySource(properties = {
+        "avito.auth.credential-cache.enabled=true",
+        "avito.jwt.secret=dGVzdC1vbmx5LXNlY3JldC1mb3Itc2VjdXJpdHktY29uZmlnLXRlc3QtMDAwMA=="
+})
+class SecurityConfigTest {
+
+    private static final String EMAIL = "user@example.com";
+    private static final String PASSWORD = "password123";
+
+    @Autowired
+    private WebApplicationContext context;
+
+    @Autowired
+    private CredentialCache credentialCache;
+
+    @SpyBean
+    private PasswordEncoder passwordEncoder;
+
+    @MockBean
+    private JdbcUserDetailsManager userDetailsManager;
+
+    @MockBean
+    private DataSource dataSource;
+
+    private MockMvc mockMvc;
+
+    @BeforeEach
+    void setUp() {
+        credentialCache.clear();
+        String hash = passwordEncoder.encode(PASSWORD);
+        when(userDetailsManager.loadUserByUsername(EMAIL))
+                .thenReturn(User.withUsername(EMAIL).password(hash).roles("USER").build());
+        mockMvc = MockMvcBuilders.webAppContextSetup(context).apply(springSecurity()).build();
+    }
+
+    @Test
+    void repeatedBasicRequestSkipsPasswordEncoder() throws Exception {
+        mockMvc.perform(get("/users/me").with(httpBasic(EMAIL, PASSWORD))).andExpect(status().isOk());
+        mockMvc.perform(get("/users/me").with(httpBasic(EMAIL, PASSWORD))).andExpect(status().isOk());
+
+        verify(passwordEncoder, times(1)).matches(any(), anyString());
+    }
+
+    @Test
+    void wrongPasswordIsNotServedFromCache() throws Exception {
+        mockMvc.perform(get("/users/me").with(httpBasic(EMAIL, PASSWORD))).andExpect(status().isOk());
+        mockMvc.perform(get("/users/me").with(httpBasic(EMAIL, "wrong"))).andExpect(status().isUnauthorized());
+    }
+
+    @Configuration
+    @EnableWebMvc
+    @Import({SecurityConfig.class, JwtConfig.class, MeController.class})
+    static class TestConfig {
+
+        @Bean
+        MeterRegistry meterRegistry() {
+            return new SimpleMeterRegistry();
+        }
+
+        @Bean
+        CredentialCache credentialCache(MeterRegistry meterRegistry) {
+            return new CredentialCache(meterRegistry, Duration.ofMinutes(5), 100);
+        }
+    }
+
+    @RestController
+    static class MeController {
+
+        @GetMapping("/users/me")
+        String me() {
+            return "ok";
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+import ru.avito.marketplace.dto.ExtendedAdDto;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AdCardCacheTest {
+
+    private final AdCardCache cache = new AdCardCache(new ObjectMapper(), new SimpleMeterRegistry(),
+            Duration.ofMinutes(5), 100);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void authorChangeInvalidatesOnlyCardsOfThatAuthor() {
+        card(1, "seller@example.com");
+        card(2, "seller@example.com");
+        card(3, "other@example.com");
+
+        cache.authorChangedAfterCommit("seller@example.com");
+        card(1, "seller@example.com");
+        card(2, "seller@example.com");
+        card(3, "other@example.com");
+
+        assertThat(loads).hasValue(5);
+    }
+
+    @Test
+    void cardLoadedAfterAuthorChangeIsCached() {
+        cache.authorChangedAfterCommit("seller@example.com");
+        card(1, "seller@example.com");
+        card(1, "seller@example.com");
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void authorChangeDuringLoadIsNotServedFromCache() {
+        cache.get(1, () -> {
+            loads.incrementAndGet();
+            cache.authorChangedAfterCommit("seller@example.com");
+            return ad(1, "seller@example.com");
+        });
+        card(1, "seller@example.com");
+
+        assertThat(loads).hasValue(2);
+    }
+
+    private void card(int id, String author) {
+        cache.get(id, () -> {
+            loads.incrementAndGet();
+            return ad(id, author);
+        });
+    }
+
+    private static ExtendedAdDto ad(int id, String author) {
+        ExtendedAdDto ad = new ExtendedAdDto();
+        ad.setId(id);
+        ad.setEmail(author);
+        return ad;
+    }
+}
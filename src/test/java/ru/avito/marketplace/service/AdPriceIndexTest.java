@@ -0,0 +1,76 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Pageable;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.projection.AdPriceRow;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AdPriceIndexTest {
+
+    private final AdRepository adRepository = mock(AdRepository.class);
+    private final AdPriceIndex index = new AdPriceIndex(adRepository);
+
+    @BeforeEach
+    void buildIndex() {
+        // Строки приходят в порядке id; одинаковые цены у 2, 3 и 5
+        when(adRepository.findPriceRowsAfter(anyInt(), any(Pageable.class))).thenReturn(List.of(
+                new AdPriceRow(1, 300),
+                new AdPriceRow(2, 100),
+                new AdPriceRow(3, 100),
+                new AdPriceRow(4, 0),
+                new AdPriceRow(5, 100),
+                new AdPriceRow(6, 500)
+        ));
+        index.build();
+    }
+
+    @Test
+    void ordersByPriceThenId() {
+        assertThat(ids(index.page(null, null, null, false, 10))).containsExactly(4, 2, 3, 5, 1, 6);
+        assertThat(ids(index.page(null, null, null, true, 10))).containsExactly(6, 1, 5, 3, 2, 4);
+    }
+
+    @Test
+    void cursorContinuesInsideTies() {
+        long[] first = index.page(null, null, null, false, 2);
+        long last = first[first.length - 1];
+        PriceCursor after = new PriceCursor(AdPriceIndex.price(last), AdPriceIndex.id(last));
+
+        assertThat(ids(index.page(null, null, after, false, 2))).containsExactly(3, 5);
+        assertThat(ids(index.page(null, null, new PriceCursor(100, 3), true, 10))).containsExactly(2, 4);
+    }
+
+    @Test
+    void priceBoundsAreInclusive() {
+        assertThat(ids(index.page(100, 300, null, false, 10))).containsExactly(2, 3, 5, 1);
+        assertThat(ids(index.page(101, 299, null, false, 10))).isEmpty();
+    }
+
+    @Test
+    void priceChangeMovesAd() {
+        index.putAfterCommit(6, 100);
+        index.removeAfterCommit(4);
+
+        assertThat(ids(index.page(null, null, null, false, 10))).containsExactly(2, 3, 5, 6, 1);
+        assertThat(AdPriceIndex.price(index.page(null, null, null, true, 1)[0])).isEqualTo(300);
+    }
+
+    @Test
+    void histogramCountsHalfOpenIntervals() {
+        assertThat(index.histogram(new int[]{0, 100, 300})).containsExactly(1, 3, 2);
+    }
+
+    private static List<Integer> ids(long[] keys) {
+        return Arrays.stream(keys).mapToInt(AdPriceIndex::id).boxed().toList();
+    }
+}
@@ -0,0 +1,84 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import ru.avito.marketplace.dto.AdDto;
+import ru.avito.marketplace.dto.ResponseWrapper;
+import ru.avito.marketplace.mapper.AdMapperImpl;
+import ru.avito.marketplace.repository.AdRepository;
+import ru.avito.marketplace.repository.projection.AdFeedRow;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+class AdSearchIndexTest {
+
+    private final AdSearchIndex index = new AdSearchIndex(mock(AdRepository.class), new AdMapperImpl());
+
+    @BeforeEach
+    void fillIndex() {
+        index.refresh(List.of(), List.of(
+                row(1, 50_000, "Ноутбук Lenovo", "Рабочий, есть царапины"),
+                row(2, 20_000, "Сумка для ноутбука", "Подойдет для ноутбуков до 15 дюймов"),
+                row(3, 30_000, "Диван", "Удобный диван, под ноутбук место тоже найдется"),
+                row(4, 5_000, "Телефоны Nokia", "Кнопочные телефоны, две штуки")
+        ));
+    }
+
+    // Вхождение в заголовок весит вдвое больше вхождения в описание
+    @Test
+    void matchesWordFormsAndRanksByWeightedFrequency() {
+        ResponseWrapper<AdDto> result = index.search("ноутбуки", null, null, 10);
+
+        assertThat(result.getCount()).isEqualTo(3);
+        assertThat(ids(result)).containsExactly(2, 1, 3);
+    }
+
+    @Test
+    void requiresEveryQueryWord() {
+        assertThat(ids(index.search("ноутбук lenovo", null, null, 10))).containsExactly(1);
+        assertThat(ids(index.search("ноутбук iphone", null, null, 10))).isEmpty();
+    }
+
+    @Test
+    void limitKeepsBestHitsButCountsAll() {
+        ResponseWrapper<AdDto> result = index.search("ноутбук", null, null, 1);
+
+        assertThat(result.getCount()).isEqualTo(3);
+        assertThat(ids(result)).containsExactly(2);
+    }
+
+    @Test
+    void lastWordMatchesByPrefix() {
+        assertThat(ids(index.search("ноут", null, null, 10))).containsExactlyInAnyOrder(1, 2, 3);
+    }
+
+    @Test
+    void correctsSingleTypo() {
+        assertThat(ids(index.search("телфоны", null, null, 10))).containsExactly(4);
+    }
+
+    @Test
+    void filtersByPrice() {
+        assertThat(ids(index.search("ноутбук", 25_000, 40_000, 10))).containsExactly(3);
+    }
+
+    @Test
+    void removedAdIsNotFound() {
+        index.refresh(List.of(2), List.of());
+
+        assertThat(ids(index.search("сумка", null, null, 10))).isEmpty();
+        assertThat(ids(index.search("ноутбук", null, null, 10))).containsExactlyInAnyOrder(1, 3);
+    }
+
+    private static AdFeedRow row(int id, int price, String title, String description) {
+        return new AdFeedRow(id, 1, null, price, title, description, 0, OffsetDateTime.now());
+    }
+
+    private static List<Integer> ids(ResponseWrapper<AdDto> result) {
+        return result.getResults().stream().map(AdDto::getId).toList();
+    }
+}
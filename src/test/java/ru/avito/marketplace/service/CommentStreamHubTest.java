@@ -0,0 +1,56 @@
+package ru.avito.marketplace.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import ru.avito.marketplace.exception.TooManySubscribersException;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.Mockito.mock;
+
+class CommentStreamHubTest {
+
+    private final ThreadPoolTaskScheduler scheduler = new ThreadPoolTaskScheduler();
+    private final ThreadPoolTaskExecutor writer = new ThreadPoolTaskExecutor();
+
+    @AfterEach
+    void shutdown() {
+        scheduler.shutdown();
+        writer.shutdown();
+    }
+
+    @Test
+    void limitsSubscriptionsPerClient() {
+        CommentStreamHub hub = hub(100, 2);
+
+        hub.subscribe(1, "10.0.0.1");
+        hub.subscribe(2, "10.0.0.1");
+
+        assertThatThrownBy(() -> hub.subscribe(3, "10.0.0.1"))
+                .isInstanceOf(TooManySubscribersException.class);
+        assertThat(hub.subscribe(3, "10.0.0.2")).isNotNull();
+    }
+
+    @Test
+    void rejectedByNodeLimitDoesNotConsumeClientSlot() {
+        CommentStreamHub hub = hub(1, 2);
+        hub.subscribe(1, "10.0.0.1");
+
+        assertThatThrownBy(() -> hub.subscribe(1, "10.0.0.2"))
+                .isInstanceOf(TooManySubscribersException.class);
+        assertThatThrownBy(() -> hub.subscribe(1, "10.0.0.2"))
+                .hasMessageContaining("повторите позже");
+    }
+
+    private CommentStreamHub hub(int maxSubscribers, int maxPerClient) {
+        scheduler.initialize();
+        writer.initialize();
+        return new CommentStreamHub(mock(OutboxRelay.class), scheduler, writer, new SimpleMeterRegistry(),
+                maxSubscribers, maxPerClient, 8, Duration.ofMinutes(1), Duration.ofSeconds(15), Duration.ofSeconds(10));
+    }
+}
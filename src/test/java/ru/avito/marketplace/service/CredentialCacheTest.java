@@ -0,0 +1,55 @@
+package ru.avito.marketplace.service;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.core.userdetails.User;
+import org.springframework.security.core.userdetails.UserDetails;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CredentialCacheTest {
+
+    private final CredentialCache cache = new CredentialCache(new SimpleMeterRegistry(), Duration.ofMinutes(5), 100);
+    private final UserDetails user = User.withUsername("user@example.com").password("hash").roles("USER").build();
+
+    @AfterEach
+    void clearSynchronization() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    void returnsEntryOnlyForSamePassword() {
+        cache.put("user@example.com", "secret", user, cache.currentGeneration());
+
+        assertThat(cache.get("user@example.com", "secret")).isSameAs(user);
+        assertThat(cache.get("user@example.com", "other")).isNull();
+    }
+
+    @Test
+    void staleCheckIsNotStoredAfterEviction() {
+        long generation = cache.currentGeneration();
+        cache.evict("user@example.com");
+        cache.put("user@example.com", "secret", user, generation);
+
+        assertThat(cache.get("user@example.com", "secret")).isNull();
+    }
+
+    @Test
+    void evictAfterCommitWaitsForCommit() {
+        cache.put("user@example.com", "secret", user, cache.currentGeneration());
+        TransactionSynchronizationManager.initSynchronization();
+
+        cache.evictAfterCommit("user@example.com");
+        assertThat(cache.get("user@example.com", "secret")).isSameAs(user);
+
+        TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+        assertThat(cache.get("user@example.com", "secret")).isNull();
+    }
+}
@@ -0,0 +1,56 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import ru.avito.marketplace.repository.ImageBlobRepository;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+class ImageDeletionQueueTest {
+
+    private final ThreadPoolTaskScheduler scheduler = mock(ThreadPoolTaskScheduler.class);
+    private final ImageDeletionQueue queue = new ImageDeletionQueue(scheduler, mock(ImageBlobRepository.class),
+            mock(ImageVariantService.class), mock(TransactionTemplate.class), 10, 3, Duration.ofSeconds(1));
+
+    @BeforeEach
+    void startTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+    }
+
+    @AfterEach
+    void clearSynchronization() {
+        TransactionSynchronizationManager.clearSynchronization();
+    }
+
+    @Test
+    void fileSavedInRolledBackTransactionIsScheduled() {
+        queue.deleteAfterRollback("/images/ads/new.jpg");
+        complete(TransactionSynchronization.STATUS_ROLLED_BACK);
+
+        verify(scheduler, times(1)).schedule(any(Runnable.class), any(Instant.class));
+    }
+
+    @Test
+    void fileSavedInCommittedTransactionIsKept() {
+        queue.deleteAfterRollback("/images/ads/new.jpg");
+        complete(TransactionSynchronization.STATUS_COMMITTED);
+
+        verify(scheduler, never()).schedule(any(Runnable.class), any(Instant.class));
+    }
+
+    private static void complete(int status) {
+        TransactionSynchronizationManager.getSynchronizations().forEach(sync -> sync.afterCompletion(status));
+    }
+}
@@ -0,0 +1,122 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ImageVariantServiceTest {
+
+    @TempDir
+    Path dir;
+
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    private ImageVariantService service;
+
+    @BeforeEach
+    void setUp() {
+        executor.setCorePoolSize(1);
+        executor.initialize();
+        service = new ImageVariantService(executor, List.of(160, 320));
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    void missingVariantIsBuiltInBackgroundAndOriginalIsNotExact() throws Exception {
+        Path original = png("wide.png", 800);
+
+        ImageVariantService.Resolution first = service.resolve(original, 300);
+        assertThat(first.file()).isEqualTo(original);
+        assertThat(first.exact()).isFalse();
+
+        awaitBackgroundWork();
+        ImageVariantService.Resolution second = service.resolve(original, 300);
+        assertThat(second.file()).isEqualTo(ImageVariantService.variantPath(original, 320));
+        assertThat(second.exact()).isTrue();
+    }
+
+    @Test
+    void narrowOriginalBecomesExactOnceBuilt() throws Exception {
+        Path original = png("narrow.png", 100);
+
+        assertThat(service.resolve(original, 160).exact()).isFalse();
+        awaitBackgroundWork();
+
+        ImageVariantService.Resolution resolution = service.resolve(original, 160);
+        assertThat(resolution.file()).isEqualTo(original);
+        assertThat(resolution.exact()).isTrue();
+    }
+
+    @Test
+    void unreadableOriginalIsNeverExact() throws Exception {
+        Path original = dir.resolve("broken.jpg");
+        Files.writeString(original, "not an image");
+
+        service.resolve(original, 160);
+        awaitBackgroundWork();
+
+        assertThat(service.resolve(original, 160).exact()).isFalse();
+    }
+
+    @Test
+    void unsupportedFormatIsNotExact() {
+        ImageVariantService.Resolution resolution = service.resolve(dir.resolve("anim.gif"), 160);
+        assertThat(resolution.exact()).isFalse();
+    }
+
+    @Test
+    void widthAboveAllVariantsServesOriginalAsExact() throws Exception {
+        Path original = png("wide.png", 800);
+        ImageVariantService.Resolution resolution = service.resolve(original, 1000);
+
+        assertThat(resolution.file()).isEqualTo(original);
+        assertThat(resolution.exact()).isTrue();
+    }
+
+    @Test
+    void reuploadAfterDeletionByRelativePathIsNotExactUntilRebuilt() throws Exception {
+        Path original = png("wide.png", 800);
+        service.resolve(original, 300);
+        awaitBackgroundWork();
+        assertThat(service.resolve(original, 300).exact()).isTrue();
+
+        // Очередь удаления передает путь относительно рабочего каталога
+        Files.delete(original);
+        service.deleteVariants(Path.of("").toAbsolutePath().relativize(original));
+        assertThat(ImageVariantService.variantPath(original, 320)).doesNotExist();
+
+        // То же содержимое загружено снова: пока копии не перестроены, оригинал не exact
+        png("wide.png", 800);
+        ImageVariantService.Resolution resolution = service.resolve(original, 300);
+        assertThat(resolution.file()).isEqualTo(original);
+        assertThat(resolution.exact()).isFalse();
+
+        awaitBackgroundWork();
+        assertThat(service.resolve(original, 300).file()).isEqualTo(ImageVariantService.variantPath(original, 320));
+    }
+
+    private Path png(String name, int width) throws IOException {
+        Path file = dir.resolve(name);
+        ImageIO.write(new BufferedImage(width, width / 2, BufferedImage.TYPE_INT_RGB), "png", file.toFile());
+        return file;
+    }
+
+    private void awaitBackgroundWork() throws Exception {
+        executor.submit(() -> { }).get(10, TimeUnit.SECONDS);
+    }
+}
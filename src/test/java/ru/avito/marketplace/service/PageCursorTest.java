@@ -0,0 +1,57 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.Test;
+import ru.avito.marketplace.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PageCursorTest {
+
+    @Test
+    void decodesWhatWasEncoded() {
+        PageCursor cursor = new PageCursor(OffsetDateTime.of(2024, 1, 15, 10, 30, 0, 123_456_000, ZoneOffset.UTC), 42);
+
+        assertThat(PageCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void normalizesOffsetToUtc() {
+        OffsetDateTime moscow = OffsetDateTime.of(2024, 1, 15, 13, 30, 0, 0, ZoneOffset.ofHours(3));
+
+        PageCursor decoded = PageCursor.decode(new PageCursor(moscow, 7).encode());
+
+        assertThat(decoded.createdAt()).isEqualTo(OffsetDateTime.of(2024, 1, 15, 10, 30, 0, 0, ZoneOffset.UTC));
+        assertThat(decoded.id()).isEqualTo(7);
+    }
+
+    @Test
+    void tokenIsUrlSafe() {
+        String token = new PageCursor(OffsetDateTime.now(ZoneOffset.UTC), Integer.MAX_VALUE).encode();
+
+        assertThat(token).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void rejectsTamperedTokens() {
+        assertRejected("not base64!");
+        assertRejected(encode("2024-01-15T10:30:00Z"));
+        assertRejected(encode("|42"));
+        assertRejected(encode("2024-01-15T10:30:00Z|abc"));
+        assertRejected(encode("yesterday|42"));
+        assertRejected(encode("2024-01-15T10:30:00Z|99999999999"));
+    }
+
+    private static void assertRejected(String token) {
+        assertThatThrownBy(() -> PageCursor.decode(token)).isInstanceOf(InvalidCursorException.class);
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
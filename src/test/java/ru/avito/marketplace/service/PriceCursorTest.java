@@ -0,0 +1,47 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.Test;
+import ru.avito.marketplace.exception.InvalidCursorException;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PriceCursorTest {
+
+    @Test
+    void decodesWhatWasEncoded() {
+        PriceCursor cursor = new PriceCursor(15_000, 42);
+
+        assertThat(PriceCursor.decode(cursor.encode())).isEqualTo(cursor);
+    }
+
+    @Test
+    void keepsExtremeValues() {
+        PriceCursor cursor = new PriceCursor(Integer.MAX_VALUE, Integer.MAX_VALUE);
+
+        assertThat(PriceCursor.decode(cursor.encode())).isEqualTo(cursor);
+        assertThat(cursor.encode()).matches("[A-Za-z0-9_-]+");
+    }
+
+    @Test
+    void rejectsTamperedTokens() {
+        assertRejected("not base64!");
+        assertRejected(encode("15000"));
+        assertRejected(encode("|42"));
+        assertRejected(encode("15000|"));
+        assertRejected(encode("15000|42|7"));
+        assertRejected(encode("дорого|42"));
+        assertRejected(encode("99999999999|42"));
+    }
+
+    private static void assertRejected(String token) {
+        assertThatThrownBy(() -> PriceCursor.decode(token)).isInstanceOf(InvalidCursorException.class);
+    }
+
+    private static String encode(String raw) {
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(raw.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,79 @@
+package ru.avito.marketplace.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ResponseCacheTest {
+
+    private final ResponseCache cache = new ResponseCache(new ObjectMapper(), new SimpleMeterRegistry(),
+            Duration.ofMinutes(5), 100, 1024);
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @Test
+    void servesCachedResponseUntilChanged() {
+        page("a", List.of(1, 2));
+        page("a", List.of(1, 2));
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void tagChangeInvalidatesOnlyResponsesWithTag() {
+        page("a", List.of(1, 2));
+        page("b", List.of(3, 4));
+
+        cache.changedAfterCommit(ResponseCache.Scope.ADS, 3);
+        page("a", List.of(1, 2));
+        page("b", List.of(3, 4));
+
+        assertThat(loads).hasValue(3);
+    }
+
+    @Test
+    void tagChangeInOtherScopeIsIgnored() {
+        page("a", List.of(1, 2));
+
+        cache.changedAfterCommit(ResponseCache.Scope.COMMENTS, 1);
+        page("a", List.of(1, 2));
+
+        assertThat(loads).hasValue(1);
+    }
+
+    @Test
+    void scopeChangeInvalidatesEverything() {
+        page("a", List.of(1, 2));
+        page("b", List.of(3, 4));
+
+        cache.changedAfterCommit(ResponseCache.Scope.ADS);
+        page("a", List.of(1, 2));
+        page("b", List.of(3, 4));
+
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    void changeDuringLoadIsNotServedFromCache() {
+        cache.get(ResponseCache.Scope.ADS, "a", () -> {
+            loads.incrementAndGet();
+            cache.changedAfterCommit(ResponseCache.Scope.ADS, 1);
+            return List.of(1);
+        }, ids -> ids);
+        page("a", List.of(1));
+
+        assertThat(loads).hasValue(2);
+    }
+
+    private void page(String key, List<Integer> ids) {
+        cache.get(ResponseCache.Scope.ADS, key, () -> {
+            loads.incrementAndGet();
+            return ids;
+        }, body -> body);
+    }
+}
@@ -0,0 +1,38 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class RussianStemmerTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "ноутбуки, ноутбук",
+            "ноутбуков, ноутбук",
+            "телефона, телефон",
+            "красивая, красив",
+            "красивых, красив",
+            "продается, прода",
+            "новейший, нов",
+            "известность, известн",
+            "гуляя, гул"
+    })
+    void stemsLikeSnowball(String word, String stem) {
+        assertThat(RussianStemmer.stem(word)).isEqualTo(stem);
+    }
+
+    @Test
+    void wordFormsShareStem() {
+        assertThat(RussianStemmer.stem("продаю")).isEqualTo(RussianStemmer.stem("продается"));
+        assertThat(RussianStemmer.stem("котов")).isEqualTo(RussianStemmer.stem("кот"));
+    }
+
+    @Test
+    void endingsAreCutOnlyAfterFirstVowel() {
+        assertThat(RussianStemmer.stem("мы")).isEqualTo("мы");
+        assertThat(RussianStemmer.stem("кот")).isEqualTo("кот");
+    }
+}
@@ -0,0 +1,42 @@
+package ru.avito.marketplace.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchAnalyzerTest {
+
+    @Test
+    void tokenizesLowercasedWithoutStopWordsAndShortTokens() {
+        assertThat(SearchAnalyzer.tokenize("Продаю Ёлку и iPhone-15, а также: ТВ!"))
+                .containsExactly("продаю", "елку", "iphone", "15", "также", "тв");
+    }
+
+    @Test
+    void emptyTextHasNoTokens() {
+        assertThat(SearchAnalyzer.tokenize(null)).isEmpty();
+        assertThat(SearchAnalyzer.tokenize(" ,.- ")).isEmpty();
+    }
+
+    @Test
+    void stemsRussianWithSnowball() {
+        assertThat(SearchAnalyzer.stem("ноутбуки")).isEqualTo("ноутбук");
+    }
+
+    @Test
+    void stemsEnglishSuffixes() {
+        assertThat(SearchAnalyzer.stem("phones")).isEqualTo("phone");
+        assertThat(SearchAnalyzer.stem("ponies")).isEqualTo("pony");
+        assertThat(SearchAnalyzer.stem("running")).isEqualTo("run");
+        assertThat(SearchAnalyzer.stem("played")).isEqualTo("play");
+        assertThat(SearchAnalyzer.stem("quickly")).isEqualTo("quick");
+        assertThat(SearchAnalyzer.stem("glass")).isEqualTo("glass");
+        assertThat(SearchAnalyzer.stem("fall")).isEqualTo("fall");
+    }
+
+    @Test
+    void mixedAndNumericTokensAreNotStemmed() {
+        assertThat(SearchAnalyzer.stem("iphone15")).isEqualTo("iphone15");
+        assertThat(SearchAnalyzer.stem("макbook")).isEqualTo("макbook");
+    }
+}